@@ -1,14 +1,74 @@
 package contracts;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
 
 /**
  * FrenOfClaw — Lightweight snippet ledger. Paw-friendly limits and lower fees than full claw stacks.
@@ -22,6 +82,10 @@ final class FOCConfig {
     static final int FOC_MAX_TITLE_BYTES = 64;
     static final int FOC_MIN_TIP_WEI = 10;
     static final int FOC_MAX_SNIPPETS_PER_AUTHOR = 64;
+    /** A batch is one author's and all-or-nothing, so it can never land more than the per-author cap. */
+    static final int FOC_MAX_SUBMIT_BATCH = FOC_MAX_SNIPPETS_PER_AUTHOR;
+    static final int FOC_PARALLEL_HASH_THRESHOLD = 64;
+    static final int FOC_MAX_TIP_BATCH = 2048;
     static final int FOC_MAX_HINT_REQUESTS_PER_USER = 24;
     static final int FOC_TREASURY_FEE_BPS = 25;
     static final int FOC_BPS_DENOM = 10000;
@@ -34,6 +98,23 @@ final class FOCConfig {
     static final String FOC_TREASURY_ADDR = "0x8D1f4A7c0B3e6D9a2F5c8E1b4A7d0C3f6E9a2B5";
     static final String FOC_FULFILLER_ADDR = "0xE3b6D9a2C5f8E1b4A7d0C3f6E9a2B5d8F1c4A7";
     static final int FOC_VERSION = 1;
+    static final boolean FOC_DEDUPE_ON_SUBMIT = false;
+    static final int FOC_JOURNAL_SEGMENT_BYTES = 64 << 20;
+    static final int FOC_JOURNAL_MAPPED_SEGMENTS = 4;
+    static final long FOC_JOURNAL_FLUSH_INTERVAL_MICROS = 1000;
+    static final long FOC_SNAPSHOT_INTERVAL_MS = 60_000;
+    static final int FOC_SNAPSHOTS_RETAINED = 2;
+    static final FocSnippetStorage FOC_SNIPPET_STORAGE = FocSnippetStorage.HEAP;
+    static final int FOC_MAX_TAG_PAGE = 1000;
+    static final long FOC_HINT_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    static final long FOC_HINT_TTL_TICK_MS = 1000;
+    static final long FOC_HINT_LEASE_MS = 5 * 60 * 1000;
+    static final int FOC_IMPORT_CHUNK_RECORDS = 1024;
+    static final int FOC_IMPORT_READ_BYTES = 1 << 20;
+    static final int FOC_IMPORT_QUEUE_CHUNKS = 8;
+    static final long FOC_SUBSCRIBER_MAX_LAG = 1 << 16;
+    /** Events a journal-backed FocEventLog keeps in memory; older reads are served from the journal. */
+    static final int FOC_EVENT_LOG_WINDOW = 1 << 16;
 
     private FOCConfig() {}
 }
@@ -92,6 +173,10 @@ final class FocHintAlreadyFulfilledException extends RuntimeException {
     FocHintAlreadyFulfilledException() { super("FOC: hint already fulfilled"); }
 }
 
+final class FocHintExpiredException extends RuntimeException {
+    FocHintExpiredException() { super("FOC: hint expired"); }
+}
+
 final class FocTipTooSmallException extends RuntimeException {
     FocTipTooSmallException() { super("FOC: tip too small"); }
 }
@@ -120,39 +205,156 @@ final class FocZeroAddressException extends RuntimeException {
     FocZeroAddressException() { super("FOC: zero address"); }
 }
 
+final class FocInvalidHashException extends RuntimeException {
+    FocInvalidHashException() { super("FOC: invalid hash"); }
+}
+
+final class FocJournalException extends RuntimeException {
+    FocJournalException(String what, Throwable cause) { super("FOC: journal " + what, cause); }
+}
+
+final class FocSlowSubscriberException extends RuntimeException {
+    FocSlowSubscriberException(long lag) { super("FOC: subscriber " + lag + " events behind"); }
+}
+
+final class FocImportException extends RuntimeException {
+    FocImportException(String what, Throwable cause) { super("FOC: import " + what, cause); }
+}
+
 // ─── Event payloads (FOC event names) ──────────────────────────────────────────
 
-final class FocSnippetSubmittedEvent {
+/** Wire tag of each event class; also lets consumers switch on an event instead of testing classes. */
+enum FocEventType {
+    SNIPPET_SUBMITTED(1, FocSnippetSubmittedEvent.class),
+    SNIPPET_UPDATED(2, FocSnippetUpdatedEvent.class),
+    SNIPPET_DELETED(3, FocSnippetDeletedEvent.class),
+    SNIPPET_TIPPED(4, FocSnippetTippedEvent.class),
+    TIPS_WITHDRAWN(5, FocTipsWithdrawnEvent.class),
+    HINT_REQUESTED(6, FocHintRequestedEvent.class),
+    HINT_FULFILLED(7, FocHintFulfilledEvent.class),
+    REPUTATION_UPVOTE(8, FocReputationUpvoteEvent.class),
+    REPUTATION_DOWNVOTE(9, FocReputationDownvoteEvent.class),
+    PAUSE_TOGGLED(10, FocPauseToggledEvent.class),
+    DEDUPE_TOGGLED(11, FocDedupeModeToggledEvent.class),
+    LANGUAGE_REGISTERED(12, FocLanguageRegisteredEvent.class),
+    BADGE_AWARDED(13, FocBadgeEvent.class),
+    SNIPPET_TAGGED(14, FocSnippetTaggedEvent.class),
+    HINT_EXPIRED(15, FocHintExpiredEvent.class),
+    SNIPPET_BATCH_SUBMITTED(16, FocSnippetBatchSubmittedEvent.class),
+    SNIPPET_BATCH_TIPPED(17, FocSnippetBatchTippedEvent.class),
+    HINT_TTL_CHANGED(18, FocHintTtlChangedEvent.class),
+    HINT_PRIORITY_CHANGED(19, FocHintPriorityChangedEvent.class);
+
+    private static final FocEventType[] BY_CODE = new FocEventType[32];
+    private static final ClassValue<FocEventType> BY_CLASS = new ClassValue<>() {
+        @Override
+        protected FocEventType computeValue(Class<?> c) {
+            for (FocEventType t : values()) {
+                if (t.eventClass == c) return t;
+            }
+            throw new IllegalStateException("FOC: no event type for " + c.getSimpleName());
+        }
+    };
+
+    static {
+        for (FocEventType t : values()) BY_CODE[t.code] = t;
+    }
+
+    final byte code;
+    final Class<? extends FocEvent> eventClass;
+
+    FocEventType(int code, Class<? extends FocEvent> eventClass) {
+        this.code = (byte) code;
+        this.eventClass = eventClass;
+    }
+
+    static FocEventType of(Class<? extends FocEvent> c) {
+        return BY_CLASS.get(c);
+    }
+
+    /** The type for a wire code, or null if the code is unknown. */
+    static FocEventType ofCode(int code) {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
+
+/**
+ * Base of every engine event. timestamp is wall-clock millis at creation (or as decoded); seq is
+ * the event's position in the FocEventLog, assigned once as the event is journaled (-1 until
+ * then) and persisted with it, so replay and snapshot restore keep the same numbering.
+ */
+abstract sealed class FocEvent permits FocSnippetSubmittedEvent, FocSnippetBatchSubmittedEvent, FocSnippetUpdatedEvent,
+        FocSnippetDeletedEvent, FocSnippetTippedEvent, FocSnippetBatchTippedEvent, FocTipsWithdrawnEvent,
+        FocHintRequestedEvent, FocHintFulfilledEvent, FocHintExpiredEvent, FocReputationUpvoteEvent,
+        FocReputationDownvoteEvent, FocPauseToggledEvent, FocDedupeModeToggledEvent, FocHintTtlChangedEvent,
+        FocHintPriorityChangedEvent, FocLanguageRegisteredEvent,
+        FocBadgeEvent, FocSnippetTaggedEvent {
+    private long seq = -1;
+    private long timestamp = System.currentTimeMillis();
+
+    public final long getSeq() { return seq; }
+    public final long getTimestamp() { return timestamp; }
+    public final FocEventType getType() { return FocEventType.of(getClass()); }
+
+    final void stampSeq(long seq) {
+        this.seq = seq;
+    }
+
+    /** Restores header fields written by FocEventCodec. */
+    final void restore(long seq, long timestamp) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+    }
+}
+
+final class FocSnippetSubmittedEvent extends FocEvent {
     final long snippetId;
     final String author;
-    final String contentHashHex;
-    final String languageId;
+    final FocHash256 contentHash;
+    final FocHash256 languageId;
     final long createdAt;
 
-    FocSnippetSubmittedEvent(long snippetId, String author, String contentHashHex, String languageId, long createdAt) {
+    FocSnippetSubmittedEvent(long snippetId, String author, FocHash256 contentHash, FocHash256 languageId, long createdAt) {
         this.snippetId = snippetId;
         this.author = author;
-        this.contentHashHex = contentHashHex;
+        this.contentHash = contentHash;
+        this.languageId = languageId;
+        this.createdAt = createdAt;
+    }
+}
+
+/** Snippets firstSnippetId .. firstSnippetId + contentHashes.length - 1, submitted together. */
+final class FocSnippetBatchSubmittedEvent extends FocEvent {
+    final long firstSnippetId;
+    final String author;
+    final FocHash256 languageId;
+    final long createdAt;
+    final FocHash256[] contentHashes;
+
+    FocSnippetBatchSubmittedEvent(long firstSnippetId, String author, FocHash256 languageId, long createdAt, FocHash256[] contentHashes) {
+        this.firstSnippetId = firstSnippetId;
+        this.author = author;
         this.languageId = languageId;
         this.createdAt = createdAt;
+        this.contentHashes = contentHashes;
     }
 }
 
-final class FocSnippetUpdatedEvent {
+final class FocSnippetUpdatedEvent extends FocEvent {
     final long snippetId;
     final String author;
-    final String newContentHashHex;
+    final FocHash256 newContentHash;
     final long updatedAt;
 
-    FocSnippetUpdatedEvent(long snippetId, String author, String newContentHashHex, long updatedAt) {
+    FocSnippetUpdatedEvent(long snippetId, String author, FocHash256 newContentHash, long updatedAt) {
         this.snippetId = snippetId;
         this.author = author;
-        this.newContentHashHex = newContentHashHex;
+        this.newContentHash = newContentHash;
         this.updatedAt = updatedAt;
     }
 }
 
-final class FocSnippetDeletedEvent {
+final class FocSnippetDeletedEvent extends FocEvent {
     final long snippetId;
     final String author;
 
@@ -162,23 +364,60 @@ final class FocSnippetDeletedEvent {
     }
 }
 
-final class FocSnippetTippedEvent {
+/**
+ * Amounts are held as longs, so the common tip allocates no BigInteger; wide carries {amount,
+ * authorShare, treasuryFee} instead, and the longs are unused, only when the amount overflows one.
+ */
+final class FocSnippetTippedEvent extends FocEvent {
     final long snippetId;
     final String tipper;
-    final BigInteger amountWei;
-    final BigInteger authorShare;
-    final BigInteger treasuryFee;
+    final long amountWei;
+    final long authorShare;
+    final long treasuryFee;
+    final BigInteger[] wide;
 
-    FocSnippetTippedEvent(long snippetId, String tipper, BigInteger amountWei, BigInteger authorShare, BigInteger treasuryFee) {
+    FocSnippetTippedEvent(long snippetId, String tipper, long amountWei, long authorShare, long treasuryFee) {
         this.snippetId = snippetId;
         this.tipper = tipper;
         this.amountWei = amountWei;
         this.authorShare = authorShare;
         this.treasuryFee = treasuryFee;
+        this.wide = null;
+    }
+
+    FocSnippetTippedEvent(long snippetId, String tipper, BigInteger amountWei, BigInteger authorShare, BigInteger treasuryFee) {
+        this.snippetId = snippetId;
+        this.tipper = tipper;
+        if (amountWei.bitLength() < 64) {
+            this.amountWei = amountWei.longValue();
+            this.authorShare = authorShare.longValue();
+            this.treasuryFee = treasuryFee.longValue();
+            this.wide = null;
+        } else {
+            this.amountWei = this.authorShare = this.treasuryFee = 0;
+            this.wide = new BigInteger[] {amountWei, authorShare, treasuryFee};
+        }
+    }
+
+    BigInteger amountWei() { return wide == null ? BigInteger.valueOf(amountWei) : wide[0]; }
+    BigInteger authorShare() { return wide == null ? BigInteger.valueOf(authorShare) : wide[1]; }
+    BigInteger treasuryFee() { return wide == null ? BigInteger.valueOf(treasuryFee) : wide[2]; }
+}
+
+/** Tips from one tipper; fees and author shares are recomputed from each amount. */
+final class FocSnippetBatchTippedEvent extends FocEvent {
+    final String tipper;
+    final long[] snippetIds;
+    final BigInteger[] amountsWei;
+
+    FocSnippetBatchTippedEvent(String tipper, long[] snippetIds, BigInteger[] amountsWei) {
+        this.tipper = tipper;
+        this.snippetIds = snippetIds;
+        this.amountsWei = amountsWei;
     }
 }
 
-final class FocTipsWithdrawnEvent {
+final class FocTipsWithdrawnEvent extends FocEvent {
     final String author;
     final BigInteger amountWei;
 
@@ -188,23 +427,23 @@ final class FocTipsWithdrawnEvent {
     }
 }
 
-final class FocHintRequestedEvent {
+final class FocHintRequestedEvent extends FocEvent {
     final long hintId;
     final String requester;
-    final String topicHashHex;
+    final FocHash256 topicHash;
     final long snippetId;
     final long createdAt;
 
-    FocHintRequestedEvent(long hintId, String requester, String topicHashHex, long snippetId, long createdAt) {
+    FocHintRequestedEvent(long hintId, String requester, FocHash256 topicHash, long snippetId, long createdAt) {
         this.hintId = hintId;
         this.requester = requester;
-        this.topicHashHex = topicHashHex;
+        this.topicHash = topicHash;
         this.snippetId = snippetId;
         this.createdAt = createdAt;
     }
 }
 
-final class FocHintFulfilledEvent {
+final class FocHintFulfilledEvent extends FocEvent {
     final long hintId;
     final String fulfiller;
     final long fulfilledAt;
@@ -216,35 +455,51 @@ final class FocHintFulfilledEvent {
     }
 }
 
-final class FocReputationUpvoteEvent {
+final class FocHintExpiredEvent extends FocEvent {
+    final long hintId;
+    final String requester;
+    final long expiredAt;
+
+    FocHintExpiredEvent(long hintId, String requester, long expiredAt) {
+        this.hintId = hintId;
+        this.requester = requester;
+        this.expiredAt = expiredAt;
+    }
+}
+
+final class FocReputationUpvoteEvent extends FocEvent {
     final long snippetId;
     final String voter;
     final String author;
     final long newScore;
+    final long scoreDelta;
 
-    FocReputationUpvoteEvent(long snippetId, String voter, String author, long newScore) {
+    FocReputationUpvoteEvent(long snippetId, String voter, String author, long newScore, long scoreDelta) {
         this.snippetId = snippetId;
         this.voter = voter;
         this.author = author;
         this.newScore = newScore;
+        this.scoreDelta = scoreDelta;
     }
 }
 
-final class FocReputationDownvoteEvent {
+final class FocReputationDownvoteEvent extends FocEvent {
     final long snippetId;
     final String voter;
     final String author;
     final long newScore;
+    final long scoreDelta;
 
-    FocReputationDownvoteEvent(long snippetId, String voter, String author, long newScore) {
+    FocReputationDownvoteEvent(long snippetId, String voter, String author, long newScore, long scoreDelta) {
         this.snippetId = snippetId;
         this.voter = voter;
         this.author = author;
         this.newScore = newScore;
+        this.scoreDelta = scoreDelta;
     }
 }
 
-final class FocPauseToggledEvent {
+final class FocPauseToggledEvent extends FocEvent {
     final boolean paused;
 
     FocPauseToggledEvent(boolean paused) {
@@ -252,417 +507,5535 @@ final class FocPauseToggledEvent {
     }
 }
 
-final class FocLanguageRegisteredEvent {
-    final String languageId;
+final class FocDedupeModeToggledEvent extends FocEvent {
+    final boolean enabled;
+
+    FocDedupeModeToggledEvent(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
+
+final class FocHintTtlChangedEvent extends FocEvent {
+    final long ttlMillis;
+
+    FocHintTtlChangedEvent(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+}
+
+final class FocHintPriorityChangedEvent extends FocEvent {
+    final FocHintPriority priority;
+
+    FocHintPriorityChangedEvent(FocHintPriority priority) {
+        this.priority = priority;
+    }
+}
+
+final class FocLanguageRegisteredEvent extends FocEvent {
+    final FocHash256 languageId;
 
-    FocLanguageRegisteredEvent(String languageId) {
+    FocLanguageRegisteredEvent(FocHash256 languageId) {
         this.languageId = languageId;
     }
 }
 
 // ─── Snippet record ───────────────────────────────────────────────────────────
 
-final class FocSnippetRecord {
+/**
+ * A snippet's state. HEAP storage keeps one FocHeapSnippetRecord per snippet; OFF_HEAP storage
+ * hands out short-lived FocSnippetView flyweights over the columns in FocSnippetColumns.
+ */
+abstract class FocSnippetRecord {
+    public abstract String getAuthor();
+    public abstract FocHash256 getContentHash();
+    public String getContentHashHex() { return getContentHash().toHex(); }
+    public void setContentHash(FocHash256 h) { swapContentHash(h); }
+    abstract FocHash256 swapContentHash(FocHash256 h);
+    public abstract FocLanguage getLanguage();
+    public String getLanguageId() { return getLanguage().getHashHex(); }
+    public int getLanguageOrdinal() { return getLanguage().getOrdinal(); }
+    public abstract long getCreatedAt();
+    public abstract long getUpdatedAt();
+    public abstract void setUpdatedAt(long t);
+    public abstract BigInteger getTipBalance();
+
+    public void addTipBalance(BigInteger v) {
+        if (v.bitLength() < 64) addTipBalance(v.longValue());
+        else spillTipBalance(v);
+    }
+
+    abstract void addTipBalance(long v);
+    abstract void spillTipBalance(BigInteger v);
+    public abstract long getReputationScore();
+    public abstract void setReputationScore(long s);
+    abstract boolean casReputationScore(long expect, long update);
+    abstract void addReputationScore(long delta);
+    public abstract boolean isDeleted();
+    public abstract void setDeleted(boolean d);
+    /** Flips live -> deleted exactly once; false if another caller already deleted it. */
+    abstract boolean markDeleted();
+    /** Undoes markDeleted when the delete could not be journaled. */
+    abstract void unmarkDeleted();
+}
+
+final class FocHeapSnippetRecord extends FocSnippetRecord {
+    private static final AtomicReferenceFieldUpdater<FocHeapSnippetRecord, FocHash256> CONTENT_HASH =
+            AtomicReferenceFieldUpdater.newUpdater(FocHeapSnippetRecord.class, FocHash256.class, "contentHash");
+    private static final AtomicLongFieldUpdater<FocHeapSnippetRecord> REPUTATION =
+            AtomicLongFieldUpdater.newUpdater(FocHeapSnippetRecord.class, "reputationScore");
+    private static final AtomicLongFieldUpdater<FocHeapSnippetRecord> TIP_BALANCE =
+            AtomicLongFieldUpdater.newUpdater(FocHeapSnippetRecord.class, "tipBalanceWei");
+    private static final AtomicIntegerFieldUpdater<FocHeapSnippetRecord> DELETED =
+            AtomicIntegerFieldUpdater.newUpdater(FocHeapSnippetRecord.class, "deleted");
+
     private final String author;
-    private volatile String contentHashHex;
-    private final String languageId;
+    private volatile FocHash256 contentHash;
+    private final FocLanguage language;
     private final long createdAt;
     private volatile long updatedAt;
-    private volatile BigInteger tipBalance;
+    private volatile long tipBalanceWei;
+    private volatile BigInteger tipBalanceSpill;
     private volatile long reputationScore;
-    private volatile boolean deleted;
+    private volatile int deleted;
+    /** See FocSnippetStore.prevByAuthor. */
+    long prevByAuthor;
 
-    FocSnippetRecord(String author, String contentHashHex, String languageId, long createdAt) {
+    FocHeapSnippetRecord(String author, FocHash256 contentHash, FocLanguage language, long createdAt) {
         this.author = author;
-        this.contentHashHex = contentHashHex;
-        this.languageId = languageId;
+        this.contentHash = contentHash;
+        this.language = language;
         this.createdAt = createdAt;
         this.updatedAt = createdAt;
-        this.tipBalance = BigInteger.ZERO;
+        this.tipBalanceWei = 0L;
+        this.tipBalanceSpill = null;
         this.reputationScore = 0L;
-        this.deleted = false;
+        this.deleted = 0;
     }
 
     public String getAuthor() { return author; }
-    public String getContentHashHex() { return contentHashHex; }
-    public void setContentHashHex(String h) { this.contentHashHex = h; }
-    public String getLanguageId() { return languageId; }
+    public FocHash256 getContentHash() { return contentHash; }
+    FocHash256 swapContentHash(FocHash256 h) { return CONTENT_HASH.getAndSet(this, h); }
+    public FocLanguage getLanguage() { return language; }
     public long getCreatedAt() { return createdAt; }
     public long getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(long t) { this.updatedAt = t; }
-    public BigInteger getTipBalance() { return tipBalance; }
-    public void addTipBalance(BigInteger v) { this.tipBalance = this.tipBalance.add(v); }
+    /** Read under the spill lock, so a long balance moving into the spill is never seen half-moved. */
+    public synchronized BigInteger getTipBalance() {
+        BigInteger spill = tipBalanceSpill;
+        BigInteger wei = BigInteger.valueOf(tipBalanceWei);
+        return spill == null ? wei : wei.add(spill);
+    }
+
+    /** Adds to the long balance by CAS; only a sum that would overflow a long goes to the BigInteger spill. */
+    void addTipBalance(long v) {
+        for (;;) {
+            long cur = tipBalanceWei;
+            long next = cur + v;
+            if (((cur ^ next) & (v ^ next)) < 0) {
+                if (overflowTipBalance(cur, v)) return;
+            } else if (TIP_BALANCE.compareAndSet(this, cur, next)) {
+                return;
+            }
+        }
+    }
+
+    /** Zeroes the long balance and spills cur + v in one step under the spill lock; false if cur is stale. */
+    private synchronized boolean overflowTipBalance(long cur, long v) {
+        if (!TIP_BALANCE.compareAndSet(this, cur, 0L)) return false;
+        spillTipBalance(BigInteger.valueOf(cur).add(BigInteger.valueOf(v)));
+        return true;
+    }
+
+    synchronized void spillTipBalance(BigInteger v) {
+        BigInteger spill = tipBalanceSpill;
+        tipBalanceSpill = spill == null ? v : spill.add(v);
+    }
     public long getReputationScore() { return reputationScore; }
     public void setReputationScore(long s) { this.reputationScore = s; }
-    public boolean isDeleted() { return deleted; }
-    public void setDeleted(boolean d) { this.deleted = d; }
+    boolean casReputationScore(long expect, long update) { return REPUTATION.compareAndSet(this, expect, update); }
+    void addReputationScore(long delta) { REPUTATION.addAndGet(this, delta); }
+    public boolean isDeleted() { return deleted != 0; }
+    public void setDeleted(boolean d) { this.deleted = d ? 1 : 0; }
+    boolean markDeleted() { return DELETED.compareAndSet(this, 0, 1); }
+    void unmarkDeleted() { DELETED.set(this, 0); }
 }
 
-// ─── Hint request ─────────────────────────────────────────────────────────────
-
-final class FocHintRequest {
-    private final String requester;
-    private final String topicHashHex;
-    private final long snippetId;
-    private final long createdAt;
-    private volatile long fulfilledAt;
-    private volatile String fulfiller;
-    private volatile boolean fulfilled;
+/** One author whose maintained reputation differs from the value recomputed from their snippets. */
+final class FocReputationDrift {
+    private final String author;
+    private final long expected;
+    private final long actual;
 
-    FocHintRequest(String requester, String topicHashHex, long snippetId, long createdAt) {
-        this.requester = requester;
-        this.topicHashHex = topicHashHex;
-        this.snippetId = snippetId;
-        this.createdAt = createdAt;
-        this.fulfilledAt = 0L;
-        this.fulfiller = null;
-        this.fulfilled = false;
+    FocReputationDrift(String author, long expected, long actual) {
+        this.author = author;
+        this.expected = expected;
+        this.actual = actual;
     }
 
-    public String getRequester() { return requester; }
-    public String getTopicHashHex() { return topicHashHex; }
-    public long getSnippetId() { return snippetId; }
-    public long getCreatedAt() { return createdAt; }
-    public long getFulfilledAt() { return fulfilledAt; }
-    public void setFulfilledAt(long t) { this.fulfilledAt = t; }
-    public String getFulfiller() { return fulfiller; }
-    public void setFulfiller(String f) { this.fulfiller = f; }
-    public boolean isFulfilled() { return fulfilled; }
-    public void setFulfilled(boolean f) { this.fulfilled = f; }
-}
+    public String getAuthor() { return author; }
+    public long getExpected() { return expected; }
+    public long getActual() { return actual; }
 
-// ─── Hash helper ─────────────────────────────────────────────────────────────
+    @Override
+    public String toString() {
+        return author + ": expected " + expected + ", actual " + actual;
+    }
+}
 
-final class FocHashUtil {
-    private static final MessageDigest SHA256;
+// ─── Hint expiry ─────────────────────────────────────────────────────────────
 
-    static {
-        try {
-            SHA256 = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 unavailable", e);
+/**
+ * Hierarchical timing wheel of ids keyed by deadline tick. Level L has 64 slots of 64^L ticks;
+ * an id goes on the lowest level whose block also contains the current tick, so scheduling is
+ * O(1), and each time a level's slot comes due its ids are re-placed one level down. Deadlines
+ * past the top level wait in an overflow bucket that is re-placed once per top-level lap.
+ * Cancellation is lazy: the owner checks state when an id fires.
+ */
+final class FocTimingWheel {
+    private static final int LEVEL_BITS = 6;
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    private static final int LEVELS = 4;
+
+    /** Growable list of (id, tick) pairs. */
+    private static final class Bucket {
+        long[] ids = new long[4];
+        long[] ticks = new long[4];
+        int size;
+
+        void add(long id, long tick) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+                ticks = Arrays.copyOf(ticks, size << 1);
+            }
+            ids[size] = id;
+            ticks[size++] = tick;
         }
     }
 
-    static String sha256Hex(byte[] input) {
-        byte[] hash = SHA256.digest(input);
-        StringBuilder sb = new StringBuilder(hash.length * 2);
-        for (byte b : hash) {
-            sb.append(String.format("%02x", b & 0xff));
+    private final long tickMillis;
+    private final Bucket[][] levels = new Bucket[LEVELS][SLOTS];
+    private final Bucket overflow = new Bucket();
+    private long currentTick;
+    private int size;
+
+    FocTimingWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        for (Bucket[] level : levels) {
+            for (int i = 0; i < SLOTS; i++) level[i] = new Bucket();
         }
-        return sb.toString();
     }
 
-    static String contentHashHex(byte[] content) {
-        return sha256Hex(content);
+    /** Schedules id to fire at the first advance at or after deadlineMillis. */
+    synchronized void schedule(long id, long deadlineMillis) {
+        place(id, Math.max(currentTick, (deadlineMillis + tickMillis - 1) / tickMillis));
+        size++;
     }
 
-    static String topicHashHex(String topic) {
-        return sha256Hex(topic.getBytes(StandardCharsets.UTF_8));
+    private void place(long id, long tick) {
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = LEVEL_BITS * (level + 1);
+            if ((tick >>> shift) == (currentTick >>> shift)) {
+                levels[level][(int) (tick >>> (LEVEL_BITS * level)) & (SLOTS - 1)].add(id, tick);
+                return;
+            }
+        }
+        overflow.add(id, tick);
     }
 
-    static String languageIdHash(String lang) {
-        return sha256Hex(lang.getBytes(StandardCharsets.UTF_8));
+    /** Advances to nowMillis and returns the ids that came due, in no particular order. */
+    synchronized long[] advance(long nowMillis) {
+        long target = nowMillis / tickMillis;
+        Bucket due = new Bucket();
+        while (currentTick <= target) {
+            Bucket slot = levels[0][(int) currentTick & (SLOTS - 1)];
+            for (int i = 0; i < slot.size; i++) due.add(slot.ids[i], slot.ticks[i]);
+            clear(slot);
+            if (currentTick == target) break;
+            currentTick++;
+            cascade();
+        }
+        size -= due.size;
+        return Arrays.copyOf(due.ids, due.size);
     }
-}
-
-// ─── FrenOfClaw engine ────────────────────────────────────────────────────────
-
-public final class FrenOfClaw {
-    private final String curatorAddr;
-    private final String treasuryAddr;
-    private final String fulfillerAddr;
-    private volatile boolean paused;
-    private final AtomicLong snippetCount = new AtomicLong(0);
-    private final AtomicLong hintRequestCount = new AtomicLong(0);
-    private volatile BigInteger totalTipsReceived = BigInteger.ZERO;
-    private volatile BigInteger totalTipsWithdrawn = BigInteger.ZERO;
-    private volatile BigInteger totalTreasuryFees = BigInteger.ZERO;
 
-    private final Map<Long, FocSnippetRecord> snippets = new ConcurrentHashMap<>();
-    private final Map<Long, FocHintRequest> hintRequests = new ConcurrentHashMap<>();
-    private final Map<String, List<Long>> snippetIdsByAuthor = new ConcurrentHashMap<>();
-    private final Map<String, List<Long>> hintRequestIdsByUser = new ConcurrentHashMap<>();
-    private final Map<String, BigInteger> authorTipBalance = new ConcurrentHashMap<>();
-    private final Map<String, Long> authorReputation = new ConcurrentHashMap<>();
-    private final Map<String, Set<Long>> hasUpvoted = new ConcurrentHashMap<>();
-    private final Map<String, Set<Long>> hasDownvoted = new ConcurrentHashMap<>();
-    private final Set<String> languageIdRegistered = ConcurrentHashMap.newKeySet();
-    private final Map<String, AtomicLong> snippetCountByLanguage = new ConcurrentHashMap<>();
-    private final List<Long> recentSnippetIds = new CopyOnWriteArrayList<>();
-    private final List<Object> eventLog = new CopyOnWriteArrayList<>();
-    private final Map<String, Integer> badgeBitsByAccount = new ConcurrentHashMap<>();
-    private final Map<Long, List<String>> snippetTags = new ConcurrentHashMap<>();
-    private static final int FOC_MAX_TAGS_PER_SNIPPET = 4;
+    /** On entering a new block at level L, re-places that block's ids, highest level first. */
+    private void cascade() {
+        int top = 0;
+        while (top < LEVELS && (currentTick & ((1L << (LEVEL_BITS * (top + 1))) - 1)) == 0) top++;
+        if (top == LEVELS) replace(overflow);
+        for (int level = Math.min(top, LEVELS - 1); level >= 1; level--) {
+            replace(levels[level][(int) (currentTick >>> (LEVEL_BITS * level)) & (SLOTS - 1)]);
+        }
+    }
 
-    public FrenOfClaw() {
-        this.curatorAddr = FOCConfig.FOC_CURATOR_ADDR;
-        this.treasuryAddr = FOCConfig.FOC_TREASURY_ADDR;
-        this.fulfillerAddr = FOCConfig.FOC_FULFILLER_ADDR;
-        this.paused = false;
-        registerLanguageInternal("solidity");
-        registerLanguageInternal("javascript");
-        registerLanguageInternal("python");
-        registerLanguageInternal("rust");
+    private void replace(Bucket b) {
+        if (b.size == 0) return;
+        long[] ids = Arrays.copyOf(b.ids, b.size);
+        long[] ticks = Arrays.copyOf(b.ticks, b.size);
+        clear(b);
+        for (int i = 0; i < ids.length; i++) place(ids[i], ticks[i]);
     }
 
-    public FrenOfClaw(String curatorAddr, String treasuryAddr, String fulfillerAddr) {
-        if (curatorAddr == null || curatorAddr.isEmpty() || treasuryAddr == null || treasuryAddr.isEmpty() || fulfillerAddr == null || fulfillerAddr.isEmpty()) {
-            throw new FocZeroAddressException();
+    private static void clear(Bucket b) {
+        if (b.ids.length > 64) {
+            b.ids = new long[4];
+            b.ticks = new long[4];
         }
-        this.curatorAddr = curatorAddr;
-        this.treasuryAddr = treasuryAddr;
-        this.fulfillerAddr = fulfillerAddr;
-        this.paused = false;
-        registerLanguageInternal("solidity");
-        registerLanguageInternal("javascript");
-        registerLanguageInternal("python");
-        registerLanguageInternal("rust");
+        b.size = 0;
     }
 
-    private void registerLanguageInternal(String lang) {
-        String id = FocHashUtil.languageIdHash(lang);
-        languageIdRegistered.add(id);
-        snippetCountByLanguage.put(id, new AtomicLong(0));
+    synchronized int size() {
+        return size;
     }
+}
 
-    public void requireCurator(String caller) {
-        if (!curatorAddr.equalsIgnoreCase(caller)) throw new FocCuratorOnlyException();
+/**
+ * Expired hint requests, moved out of the hot store. Each is a fixed 60-byte row (requester
+ * account id, topic hash, snippet id, created and expired times) instead of a live object, and
+ * is rebuilt as a read-only FocHintRequest on lookup.
+ */
+final class FocColdHintStore {
+    private static final int ROW_BYTES = 4 + 32 + 8 + 8 + 8;
+
+    private final FocChunkedStore<byte[]> rows = new FocChunkedStore<>();
+    private final FocAccountIds accounts = new FocAccountIds();
+    private final AtomicLong count = new AtomicLong();
+
+    void put(long hintId, FocHintRequest h, long expiredAt) {
+        FocHash256 topic = h.getTopicHash();
+        ByteBuffer row = ByteBuffer.allocate(ROW_BYTES);
+        row.putInt(accounts.intern(h.getRequester()))
+                .putLong(topic.w0).putLong(topic.w1).putLong(topic.w2).putLong(topic.w3)
+                .putLong(h.getSnippetId()).putLong(h.getCreatedAt()).putLong(expiredAt);
+        rows.put(hintId, row.array());
+        count.incrementAndGet();
     }
 
-    public void requireTreasury(String caller) {
-        if (!treasuryAddr.equalsIgnoreCase(caller)) throw new FocTreasuryOnlyException();
+    FocHintRequest get(long hintId) {
+        byte[] bytes = rows.get(hintId);
+        if (bytes == null) return null;
+        ByteBuffer row = ByteBuffer.wrap(bytes);
+        String requester = accounts.name(row.getInt());
+        FocHash256 topic = new FocHash256(row.getLong(), row.getLong(), row.getLong(), row.getLong());
+        FocHintRequest h = new FocHintRequest(requester, topic, row.getLong(), row.getLong());
+        h.transitionFromOpen(FocHintRequest.STATE_EXPIRED);
+        h.setExpiredAt(row.getLong());
+        return h;
     }
 
-    public void requireFulfiller(String caller) {
-        if (!fulfillerAddr.equalsIgnoreCase(caller)) throw new FocFulfillerOnlyException();
+    long size() {
+        return count.get();
     }
+}
 
-    public void requireNotPaused() {
-        if (paused) throw new FocPausedException();
+/**
+ * Drives FrenOfClaw.reclaimHintLeases and expireHints from a daemon thread once per
+ * FOC_HINT_TTL_TICK_MS. A tick that throws (a journal failure, say) is recorded in lastFailure and
+ * the thread keeps ticking; the hints it could not expire stay due and are retried on the next tick.
+ */
+final class FocHintExpirer implements Closeable {
+    private final FrenOfClaw engine;
+    private final Thread worker;
+    private volatile RuntimeException failure;
+    private volatile boolean closed;
+
+    private FocHintExpirer(FrenOfClaw engine) {
+        this.engine = engine;
+        this.worker = new Thread(this::run, "foc-hint-expiry");
+        this.worker.setDaemon(true);
     }
 
-    public long submitSnippet(String author, byte[] content, String languageId, byte[] title) {
-        requireNotPaused();
-        if (content.length > FOCConfig.FOC_MAX_SNIPPET_BYTES) throw new FocSnippetTooLongException();
-        if (title != null && title.length > FOCConfig.FOC_MAX_TITLE_BYTES) throw new FocTitleTooLongException();
-        String langHash = FocHashUtil.languageIdHash(languageId);
-        if (!languageIdRegistered.contains(langHash)) throw new FocLanguageAlreadyRegisteredException();
-
-        List<Long> authorIds = snippetIdsByAuthor.computeIfAbsent(author, k -> new CopyOnWriteArrayList<>());
-        long activeCount = authorIds.stream().filter(id -> {
-            FocSnippetRecord r = snippets.get(id);
-            return r != null && !r.isDeleted();
-        }).count();
-        if (activeCount >= FOCConfig.FOC_MAX_SNIPPETS_PER_AUTHOR) throw new FocAuthorSnippetCapException();
-
-        long snippetId = snippetCount.incrementAndGet();
-        String contentHashHex = FocHashUtil.contentHashHex(content);
-        long ts = System.currentTimeMillis();
-        FocSnippetRecord rec = new FocSnippetRecord(author, contentHashHex, langHash, ts);
-        snippets.put(snippetId, rec);
-        authorIds.add(snippetId);
-        snippetCountByLanguage.get(langHash).incrementAndGet();
-        pushRecentSnippet(snippetId);
-
-        eventLog.add(new FocSnippetSubmittedEvent(snippetId, author, contentHashHex, langHash, ts));
-        return snippetId;
+    static FocHintExpirer start(FrenOfClaw engine) {
+        FocHintExpirer e = new FocHintExpirer(engine);
+        e.worker.start();
+        return e;
     }
 
-    private void pushRecentSnippet(long snippetId) {
-        synchronized (recentSnippetIds) {
-            recentSnippetIds.add(0, snippetId);
-            while (recentSnippetIds.size() > FOCConfig.FOC_RECENT_QUEUE_SIZE) {
-                recentSnippetIds.remove(recentSnippetIds.size() - 1);
+    private void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(FOCConfig.FOC_HINT_TTL_TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                long now = System.currentTimeMillis();
+                engine.reclaimHintLeases(now);
+                engine.expireHints(now);
+            } catch (RuntimeException e) {
+                failure = e;
             }
         }
     }
 
-    public void updateSnippet(long snippetId, String author, byte[] newContent) {
-        requireNotPaused();
-        FocSnippetRecord s = snippets.get(snippetId);
-        if (s == null) throw new FocInvalidSnippetIdException();
-        if (s.isDeleted()) throw new FocSnippetDeletedException();
-        if (!s.getAuthor().equals(author)) throw new FocNotAuthorException();
-        if (newContent.length > FOCConfig.FOC_MAX_SNIPPET_BYTES) throw new FocSnippetTooLongException();
+    /** The most recent tick failure, or null if none has failed. */
+    RuntimeException lastFailure() {
+        return failure;
+    }
 
-        String newHash = FocHashUtil.contentHashHex(newContent);
-        s.setContentHashHex(newHash);
-        s.setUpdatedAt(System.currentTimeMillis());
-        eventLog.add(new FocSnippetUpdatedEvent(snippetId, author, newHash, s.getUpdatedAt()));
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
+}
 
-    public void deleteSnippet(long snippetId, String author) {
-        FocSnippetRecord s = snippets.get(snippetId);
-        if (s == null) throw new FocInvalidSnippetIdException();
-        if (s.isDeleted()) throw new FocSnippetDeletedException();
-        if (!s.getAuthor().equals(author)) throw new FocNotAuthorException();
+// ─── Open hint queue ─────────────────────────────────────────────────────────
 
-        s.setDeleted(true);
-        snippetCountByLanguage.get(s.getLanguageId()).decrementAndGet();
-        eventLog.add(new FocSnippetDeletedEvent(snippetId, author));
+/**
+ * Orders the open-hint queue: lower values are taken first, ties by hint id. A closed set, so the
+ * choice can be journaled and snapshotted by ordinal; add new orders at the end.
+ */
+enum FocHintPriority {
+    /** Oldest request first. */
+    OLDEST_FIRST {
+        @Override
+        long of(long hintId, FocHintRequest h) { return h.getCreatedAt(); }
+    },
+    /** Newest request first. */
+    NEWEST_FIRST {
+        @Override
+        long of(long hintId, FocHintRequest h) { return -h.getCreatedAt(); }
+    },
+    /** Requests about a specific snippet before general ones, oldest first within each. */
+    SNIPPET_FIRST {
+        @Override
+        long of(long hintId, FocHintRequest h) { return (h.getSnippetId() == 0 ? 1L << 62 : 0) + h.getCreatedAt(); }
+    };
+
+    abstract long of(long hintId, FocHintRequest h);
+
+    static FocHintPriority ofOrdinal(int ordinal) {
+        FocHintPriority[] all = values();
+        if (ordinal < 0 || ordinal >= all.length) throw new FocJournalException("unknown hint priority " + ordinal, null);
+        return all[ordinal];
     }
+}
 
-    public void tipSnippet(long snippetId, String tipper, BigInteger amountWei) {
-        requireNotPaused();
-        if (amountWei.compareTo(BigInteger.valueOf(FOCConfig.FOC_MIN_TIP_WEI)) < 0) throw new FocTipTooSmallException();
-        FocSnippetRecord s = snippets.get(snippetId);
-        if (s == null) throw new FocInvalidSnippetIdException();
-        if (s.isDeleted()) throw new FocSnippetDeletedException();
+/**
+ * Work queue of open hint ids for fulfiller workers. A ConcurrentSkipListSet orders entries by
+ * priority and a map finds a hint's entry, so offer, remove and take are O(log n) in the number
+ * of open hints and independent of history size. A taker that finds the queue empty registers as
+ * a waiter and blocks; offers only take the lock to signal when someone is waiting.
+ */
+final class FocHintQueue {
+    private static final class Entry {
+        final long priority;
+        final long hintId;
+
+        Entry(long priority, long hintId) {
+            this.priority = priority;
+            this.hintId = hintId;
+        }
+    }
 
-        BigInteger fee = amountWei.multiply(BigInteger.valueOf(FOCConfig.FOC_TREASURY_FEE_BPS)).divide(BigInteger.valueOf(FOCConfig.FOC_BPS_DENOM));
-        BigInteger toAuthor = amountWei.subtract(fee);
-        s.addTipBalance(toAuthor);
-        authorTipBalance.merge(s.getAuthor(), toAuthor, BigInteger::add);
-        totalTipsReceived = totalTipsReceived.add(amountWei);
-        totalTreasuryFees = totalTreasuryFees.add(fee);
-        eventLog.add(new FocSnippetTippedEvent(snippetId, tipper, amountWei, toAuthor, fee));
+    private final ConcurrentSkipListSet<Entry> ordered = new ConcurrentSkipListSet<>((a, b) ->
+            a.priority != b.priority ? Long.compare(a.priority, b.priority) : Long.compare(a.hintId, b.hintId));
+    private final Map<Long, Entry> byId = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile int waiters;
+
+    /** Queues hintId, or moves it if it is already queued. */
+    void offer(long hintId, long priority) {
+        Entry e = new Entry(priority, hintId);
+        byId.compute(hintId, (k, old) -> {
+            if (old != null) ordered.remove(old);
+            ordered.add(e);
+            return e;
+        });
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 
-    public BigInteger withdrawTips(String author) {
-        BigInteger balance = authorTipBalance.getOrDefault(author, BigInteger.ZERO);
-        if (balance.compareTo(BigInteger.ZERO) <= 0) throw new FocInsufficientBalanceException();
-        authorTipBalance.put(author, BigInteger.ZERO);
-        totalTipsWithdrawn = totalTipsWithdrawn.add(balance);
-        eventLog.add(new FocTipsWithdrawnEvent(author, balance));
-        return balance;
+    boolean remove(long hintId) {
+        Entry e = byId.remove(hintId);
+        if (e == null) return false;
+        ordered.remove(e);
+        return true;
     }
 
-    public long requestHint(String requester, String topicHashHex, long snippetId) {
-        requireNotPaused();
-        List<Long> userHints = hintRequestIdsByUser.computeIfAbsent(requester, k -> new CopyOnWriteArrayList<>());
-        long openCount = userHints.stream().filter(id -> {
-            FocHintRequest h = hintRequests.get(id);
-            return h != null && !h.isFulfilled();
-        }).count();
-        if (openCount >= FOCConfig.FOC_MAX_HINT_REQUESTS_PER_USER) throw new FocHintRequestCapException();
-        if (snippetId != 0) {
-            FocSnippetRecord s = snippets.get(snippetId);
-            if (s == null || s.isDeleted()) throw new FocInvalidSnippetIdException();
+    /** Removes and returns the first hint id, or 0 if the queue is empty. */
+    long poll() {
+        for (;;) {
+            Entry e = ordered.pollFirst();
+            if (e == null) return 0L;
+            // Losing this means a concurrent remove or re-offer owns the hint now.
+            if (byId.remove(e.hintId, e)) return e.hintId;
         }
-
-        long hintId = hintRequestCount.incrementAndGet();
-        long ts = System.currentTimeMillis();
-        FocHintRequest h = new FocHintRequest(requester, topicHashHex, snippetId, ts);
-        hintRequests.put(hintId, h);
-        userHints.add(hintId);
-        eventLog.add(new FocHintRequestedEvent(hintId, requester, topicHashHex, snippetId, ts));
-        return hintId;
     }
 
-    public void fulfillHint(long hintId, String fulfiller) {
-        requireFulfiller(fulfiller);
-        requireNotPaused();
-        FocHintRequest h = hintRequests.get(hintId);
-        if (h == null) throw new FocInvalidHintIdException();
-        if (h.isFulfilled()) throw new FocHintAlreadyFulfilledException();
+    /** Like poll, but waits up to timeout for a hint; returns 0 if none arrived. */
+    long take(long timeout, TimeUnit unit) throws InterruptedException {
+        long id = poll();
+        if (id != 0) return id;
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            waiters++;
+            try {
+                for (;;) {
+                    id = poll();
+                    if (id != 0 || nanos <= 0) return id;
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waiters--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        long ts = System.currentTimeMillis();
-        h.setFulfilled(true);
-        h.setFulfilledAt(ts);
-        h.setFulfiller(fulfiller);
-        eventLog.add(new FocHintFulfilledEvent(hintId, fulfiller, ts));
+    Set<Long> ids() {
+        return byId.keySet();
     }
 
-    public void registerLanguage(String languageIdHash, String curator) {
-        requireCurator(curator);
-        if (languageIdRegistered.contains(languageIdHash)) throw new FocLanguageAlreadyRegisteredException();
-        languageIdRegistered.add(languageIdHash);
-        snippetCountByLanguage.put(languageIdHash, new AtomicLong(0));
-        eventLog.add(new FocLanguageRegisteredEvent(languageIdHash));
+    int size() {
+        return byId.size();
     }
+}
 
-    public void upvoteSnippet(long snippetId, String voter) {
-        requireNotPaused();
-        FocSnippetRecord s = snippets.get(snippetId);
-        if (s == null) throw new FocInvalidSnippetIdException();
-        if (s.isDeleted()) throw new FocSnippetDeletedException();
-        if (s.getAuthor().equals(voter)) throw new FocCannotVoteOwnException();
+// ─── Leaderboards ────────────────────────────────────────────────────────────
 
-        Set<Long> up = hasUpvoted.computeIfAbsent(voter, k -> ConcurrentHashMap.newKeySet());
-        if (up.contains(snippetId)) throw new FocAlreadyUpvotedException();
-        up.add(snippetId);
-        Set<Long> down = hasDownvoted.get(voter);
-        if (down != null && down.remove(snippetId)) {
-            s.setReputationScore(Math.max(0, s.getReputationScore() + FOCConfig.FOC_REPUTATION_DOWN_DELTA));
-        }
-        s.setReputationScore(s.getReputationScore() + FOCConfig.FOC_REPUTATION_UP_DELTA);
-        authorReputation.put(s.getAuthor(), recomputeAuthorReputation(s.getAuthor()));
-        eventLog.add(new FocReputationUpvoteEvent(snippetId, voter, s.getAuthor(), s.getReputationScore()));
+/** A ranked key and the score it had when the leaderboard was read. */
+final class FocLeaderboardEntry<K, S> {
+    private final K key;
+    private final S score;
+
+    FocLeaderboardEntry(K key, S score) {
+        this.key = key;
+        this.score = score;
     }
 
-    public void downvoteSnippet(long snippetId, String voter) {
-        requireNotPaused();
-        FocSnippetRecord s = snippets.get(snippetId);
-        if (s == null) throw new FocInvalidSnippetIdException();
-        if (s.isDeleted()) throw new FocSnippetDeletedException();
-        if (s.getAuthor().equals(voter)) throw new FocCannotVoteOwnException();
+    public K getKey() { return key; }
+    public S getScore() { return score; }
 
-        Set<Long> downSet = hasDownvoted.computeIfAbsent(voter, k -> ConcurrentHashMap.newKeySet());
-        if (downSet.contains(snippetId)) throw new FocAlreadyDownvotedException();
-        downSet.add(snippetId);
-        Set<Long> upSet = hasUpvoted.get(voter);
-        if (upSet != null && upSet.remove(snippetId)) {
-            s.setReputationScore(Math.max(0, s.getReputationScore() - FOCConfig.FOC_REPUTATION_UP_DELTA));
+    @Override
+    public String toString() {
+        return key + "=" + score;
+    }
+}
+
+/**
+ * Top-K ranking kept current by writers. Entries sit in a ConcurrentSkipListSet ordered by score
+ * (descending) then key, and a map holds each key's live entry, so an update is an O(log n)
+ * insert and removal and reading the top k walks k entries. The new entry is inserted before the
+ * old one is removed: a concurrent reader can see a key twice for a moment but never loses it,
+ * and top() keeps only the first sighting.
+ */
+final class FocLeaderboard<K extends Comparable<K>, S extends Comparable<S>> {
+    private final ConcurrentSkipListSet<FocLeaderboardEntry<K, S>> ranked = new ConcurrentSkipListSet<>((a, b) -> {
+        int c = b.getScore().compareTo(a.getScore());
+        return c != 0 ? c : a.getKey().compareTo(b.getKey());
+    });
+    private final Map<K, FocLeaderboardEntry<K, S>> current = new ConcurrentHashMap<>();
+
+    /**
+     * Re-ranks key at the score scoreOf reads now; a null score drops the key. The read happens
+     * under the key's map lock, so whichever refresh runs last for a key publishes its latest score.
+     */
+    void refresh(K key, Function<? super K, ? extends S> scoreOf) {
+        current.compute(key, (k, old) -> {
+            S score = scoreOf.apply(k);
+            if (old != null && score != null && old.getScore().compareTo(score) == 0) return old;
+            FocLeaderboardEntry<K, S> next = score == null ? null : new FocLeaderboardEntry<>(k, score);
+            if (next != null) ranked.add(next);
+            if (old != null) ranked.remove(old);
+            return next;
+        });
+    }
+
+    /** Entries ranked below (score, key), best first; a key can show up twice while it is re-ranked. */
+    Iterable<FocLeaderboardEntry<K, S>> after(K key, S score) {
+        return ranked.tailSet(new FocLeaderboardEntry<>(key, score), false);
+    }
+
+    List<FocLeaderboardEntry<K, S>> top(int k) {
+        List<FocLeaderboardEntry<K, S>> out = new ArrayList<>(Math.max(0, Math.min(k, 1024)));
+        Set<K> seen = new HashSet<>();
+        for (FocLeaderboardEntry<K, S> e : ranked) {
+            if (out.size() >= k) break;
+            if (seen.add(e.getKey())) out.add(e);
+        }
+        return out;
+    }
+
+    int size() {
+        return current.size();
+    }
+}
+
+// ─── Tag queries ─────────────────────────────────────────────────────────────
+
+enum FocTagOrder {
+    /** Ascending snippet id. */
+    SNIPPET_ID,
+    /** Descending snippet reputation score, ties by ascending id. */
+    REPUTATION
+}
+
+/** One page of a tag query; pass nextCursor back to continue, null means there is nothing more. */
+final class FocTagPage {
+    private final List<Long> snippetIds;
+    private final String nextCursor;
+
+    FocTagPage(List<Long> snippetIds, String nextCursor) {
+        this.snippetIds = snippetIds;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Long> getSnippetIds() { return snippetIds; }
+    public String getNextCursor() { return nextCursor; }
+}
+
+/**
+ * Keeps the best capacity (score, id) pairs offered, higher score first and then lower id, in a
+ * min-heap over two long arrays with the worst pair at the root; no allocation per offer.
+ */
+final class FocTopScores {
+    private final long[] scores;
+    private final long[] ids;
+    private int size;
+    private long offered;
+
+    FocTopScores(int capacity) {
+        this.scores = new long[capacity];
+        this.ids = new long[capacity];
+    }
+
+    void offer(long score, long id) {
+        offered++;
+        if (size < scores.length) {
+            int i = size++;
+            for (int parent; i > 0 && worse(score, id, scores[parent = (i - 1) >>> 1], ids[parent]); i = parent) {
+                scores[i] = scores[parent];
+                ids[i] = ids[parent];
+            }
+            scores[i] = score;
+            ids[i] = id;
+        } else if (worse(scores[0], ids[0], score, id)) {
+            siftDown(score, id);
+        }
+    }
+
+    /** Pairs offered so far, kept or not. */
+    long offered() {
+        return offered;
+    }
+
+    /** Empties the heap into out, best first; returns the worst pair kept as {score, id}, or null if none. */
+    long[] drainTo(List<Long> out) {
+        if (size == 0) return null;
+        long[] last = {scores[0], ids[0]};
+        Long[] sorted = new Long[size];
+        for (int i = size - 1; i >= 0; i--) {
+            sorted[i] = ids[0];
+            long s = scores[--size];
+            long id = ids[size];
+            if (size > 0) siftDown(s, id);
+        }
+        out.addAll(Arrays.asList(sorted));
+        return last;
+    }
+
+    private void siftDown(long score, long id) {
+        int i = 0;
+        for (int child; (child = 2 * i + 1) < size; i = child) {
+            if (child + 1 < size && worse(scores[child + 1], ids[child + 1], scores[child], ids[child])) child++;
+            if (!worse(scores[child], ids[child], score, id)) break;
+            scores[i] = scores[child];
+            ids[i] = ids[child];
+        }
+        scores[i] = score;
+        ids[i] = id;
+    }
+
+    private static boolean worse(long s1, long id1, long s2, long id2) {
+        return s1 != s2 ? s1 < s2 : id1 > id2;
+    }
+}
+
+// ─── Hint request ─────────────────────────────────────────────────────────────
+
+final class FocHintRequest {
+    static final int STATE_OPEN = 0;
+    static final int STATE_FULFILLED = 1;
+    static final int STATE_EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<FocHintRequest> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(FocHintRequest.class, "state");
+
+    private final String requester;
+    private final FocHash256 topicHash;
+    private final long snippetId;
+    private final long createdAt;
+    private volatile long fulfilledAt;
+    private volatile String fulfiller;
+    private volatile long expiredAt;
+    private volatile long expiresAt;
+    private volatile int state;
+
+    FocHintRequest(String requester, FocHash256 topicHash, long snippetId, long createdAt) {
+        this.requester = requester;
+        this.topicHash = topicHash;
+        this.snippetId = snippetId;
+        this.createdAt = createdAt;
+        this.fulfilledAt = 0L;
+        this.fulfiller = null;
+        this.state = STATE_OPEN;
+    }
+
+    public String getRequester() { return requester; }
+    public FocHash256 getTopicHash() { return topicHash; }
+    public String getTopicHashHex() { return topicHash.toHex(); }
+    public long getSnippetId() { return snippetId; }
+    public long getCreatedAt() { return createdAt; }
+    public long getFulfilledAt() { return fulfilledAt; }
+    public void setFulfilledAt(long t) { this.fulfilledAt = t; }
+    public String getFulfiller() { return fulfiller; }
+    public void setFulfiller(String f) { this.fulfiller = f; }
+    public boolean isFulfilled() { return state == STATE_FULFILLED; }
+    public void setFulfilled(boolean f) { this.state = f ? STATE_FULFILLED : STATE_OPEN; }
+    public boolean isOpen() { return state == STATE_OPEN; }
+    public boolean isExpired() { return state == STATE_EXPIRED; }
+    public long getExpiredAt() { return expiredAt; }
+    void setExpiredAt(long t) { this.expiredAt = t; }
+    /** When an open request is due to expire, fixed by the TTL in force when it was made; 0 = never. */
+    public long getExpiresAt() { return expiresAt; }
+    void setExpiresAt(long t) { this.expiresAt = t; }
+    int getState() { return state; }
+    /** Moves OPEN -> newState exactly once; false if the request already left OPEN. */
+    boolean transitionFromOpen(int newState) { return STATE.compareAndSet(this, STATE_OPEN, newState); }
+    /** Undoes transitionFromOpen(fromState) when the transition could not be journaled. */
+    void revertToOpen(int fromState) { STATE.compareAndSet(this, fromState, STATE_OPEN); }
+}
+
+// ─── Id bitmap ───────────────────────────────────────────────────────────────
+
+/**
+ * Concurrent Roaring-style set of ids (snippet and hint ids). An id's high bits pick a chunk of
+ * CHUNK_IDS ids and its low 16 bits a slot in that chunk's container: a sorted char array while
+ * the chunk holds at most ARRAY_MAX ids (two bytes per id, so a voter's sparse handful of votes
+ * stays small), and a 1024-word bitmap once it is denser (one bit per id). Chunks are created
+ * on first add and dropped when their last id is removed. Each container is guarded by its own
+ * monitor; the chunk map is lock-free and iteration is in ascending id order.
+ */
+final class FocIdBitmap {
+    static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_IDS = 1 << CHUNK_SHIFT;
+    /** Largest array container; beyond this a bitmap (8 KiB) is no bigger than the array. */
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS_PER_CHUNK = CHUNK_IDS >>> 6;
+
+    private final ConcurrentSkipListMap<Long, Container> chunks = new ConcurrentSkipListMap<>();
+    private final LongAdder cardinality = new LongAdder();
+
+    /** Sets the bit for id; returns false if it was already set. */
+    boolean add(long id) {
+        Long key = id >>> CHUNK_SHIFT;
+        int low = (int) id & (CHUNK_IDS - 1);
+        for (;;) {
+            Container c = chunks.get(key);
+            if (c == null) c = chunks.computeIfAbsent(key, k -> new Container());
+            synchronized (c) {
+                // A container emptied and unlinked by a concurrent remove must not take new ids.
+                if (c.dead) continue;
+                if (!c.add(low)) return false;
+            }
+            cardinality.increment();
+            return true;
+        }
+    }
+
+    /** Clears the bit for id; returns false if it was not set. */
+    boolean remove(long id) {
+        Long key = id >>> CHUNK_SHIFT;
+        for (;;) {
+            Container c = chunks.get(key);
+            if (c == null) return false;
+            synchronized (c) {
+                if (c.dead) continue;
+                if (!c.remove((int) id & (CHUNK_IDS - 1))) return false;
+                if (c.cardinality == 0) {
+                    c.dead = true;
+                    chunks.remove(key, c);
+                }
+            }
+            cardinality.decrement();
+            return true;
+        }
+    }
+
+    boolean contains(long id) {
+        for (;;) {
+            Container c = chunks.get(id >>> CHUNK_SHIFT);
+            if (c == null) return false;
+            synchronized (c) {
+                if (!c.dead) return c.contains((int) id & (CHUNK_IDS - 1));
+            }
+        }
+    }
+
+    long cardinality() {
+        return cardinality.sum();
+    }
+
+    boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /** Smallest set id >= from, or -1 if there is none. */
+    long nextSetBit(long from) {
+        if (from < 0) from = 0;
+        for (Map.Entry<Long, Container> e : chunks.tailMap(from >>> CHUNK_SHIFT, true).entrySet()) {
+            long base = e.getKey() << CHUNK_SHIFT;
+            int low;
+            Container c = e.getValue();
+            synchronized (c) {
+                low = c.nextSetBit(base >= from ? 0 : (int) (from - base));
+            }
+            if (low >= 0) return base + low;
+        }
+        return -1;
+    }
+
+    /** Visits ids in ascending order; each chunk is copied under its lock, so action runs unlocked. */
+    void forEach(LongConsumer action) {
+        for (Map.Entry<Long, Container> e : chunks.entrySet()) {
+            long base = e.getKey() << CHUNK_SHIFT;
+            Container c = e.getValue().snapshot();
+            if (c.words == null) {
+                for (int i = 0; i < c.cardinality; i++) action.accept(base + c.values[i]);
+            } else {
+                for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                    long bits = c.words[w];
+                    while (bits != 0) {
+                        action.accept(base + ((long) w << 6) + Long.numberOfTrailingZeros(bits));
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    long[] toArray() {
+        long[] out = new long[(int) Math.max(0, cardinality())];
+        int[] n = new int[1];
+        forEach(id -> {
+            if (n[0] == out.length) return;
+            out[n[0]++] = id;
+        });
+        return n[0] == out.length ? out : Arrays.copyOf(out, n[0]);
+    }
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int AND_NOT = 2;
+
+    /** Ids in both a and b, as a new bitmap; costs one pass over a's chunks. */
+    static FocIdBitmap and(FocIdBitmap a, FocIdBitmap b) {
+        return combine(a, b, AND);
+    }
+
+    /** Ids in a or b, as a new bitmap. */
+    static FocIdBitmap or(FocIdBitmap a, FocIdBitmap b) {
+        return combine(a, b, OR);
+    }
+
+    /** Ids in a but not in b, as a new bitmap. */
+    static FocIdBitmap andNot(FocIdBitmap a, FocIdBitmap b) {
+        return combine(a, b, AND_NOT);
+    }
+
+    FocIdBitmap copy() {
+        return combine(this, new FocIdBitmap(), OR);
+    }
+
+    /** Chunk-wise combine; inputs may change concurrently, so the result reflects each chunk as it was read. */
+    private static FocIdBitmap combine(FocIdBitmap a, FocIdBitmap b, int op) {
+        FocIdBitmap out = new FocIdBitmap();
+        for (Map.Entry<Long, Container> e : a.chunks.entrySet()) {
+            Container other = b.chunks.get(e.getKey());
+            if (other == null && op == AND) continue;
+            out.putCombined(e.getKey(), e.getValue().snapshot(), other == null ? null : other.snapshot(), op);
+        }
+        if (op == OR) {
+            for (Map.Entry<Long, Container> e : b.chunks.entrySet()) {
+                if (!a.chunks.containsKey(e.getKey())) out.putCombined(e.getKey(), e.getValue().snapshot(), null, OR);
+            }
+        }
+        return out;
+    }
+
+    private void putCombined(long key, Container x, Container y, int op) {
+        Container c = y == null ? x : x.words == null && y.words == null ? Container.mergeArrays(x, y, op) : Container.mergeWords(x, y, op);
+        if (c.cardinality == 0) return;
+        chunks.put(key, c);
+        cardinality.add(c.cardinality);
+    }
+
+    /** One chunk's ids as low 16-bit values; every method but snapshot expects the caller to hold its monitor. */
+    private static final class Container {
+        char[] values = new char[4];
+        long[] words;
+        int cardinality;
+        boolean dead;
+
+        boolean contains(int low) {
+            if (words != null) return (words[low >>> 6] & (1L << low)) != 0;
+            return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+        }
+
+        boolean add(int low) {
+            if (words != null) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) != 0) return false;
+                words[low >>> 6] |= bit;
+                cardinality++;
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (i >= 0) return false;
+            if (cardinality == ARRAY_MAX) {
+                toWords();
+                return add(low);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = (char) low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(int low) {
+            if (words != null) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) == 0) return false;
+                words[low >>> 6] &= ~bit;
+                // Back to an array only well below ARRAY_MAX, so ids churning at the boundary do not flip it each time.
+                if (--cardinality <= ARRAY_MAX / 2) toValues();
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (i < 0) return false;
+            System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+            cardinality--;
+            return true;
+        }
+
+        int nextSetBit(int from) {
+            if (words == null) {
+                int i = Arrays.binarySearch(values, 0, cardinality, (char) from);
+                if (i < 0) i = -i - 1;
+                return i < cardinality ? values[i] : -1;
+            }
+            for (int w = from >>> 6; w < WORDS_PER_CHUNK; w++) {
+                long bits = words[w];
+                if (w == from >>> 6) bits &= -1L << from;
+                if (bits != 0) return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            return -1;
+        }
+
+        private void toWords() {
+            long[] ws = new long[WORDS_PER_CHUNK];
+            for (int i = 0; i < cardinality; i++) ws[values[i] >>> 6] |= 1L << values[i];
+            words = ws;
+            values = null;
+        }
+
+        private void toValues() {
+            char[] vs = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                for (long bits = words[w]; bits != 0; bits &= bits - 1) vs[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(bits));
+            }
+            values = vs;
+            words = null;
+        }
+
+        /** A private copy taken under this container's monitor. */
+        Container snapshot() {
+            Container c = new Container();
+            synchronized (this) {
+                c.cardinality = cardinality;
+                if (words != null) {
+                    c.words = words.clone();
+                    c.values = null;
+                } else {
+                    c.values = Arrays.copyOf(values, Math.max(4, cardinality));
+                }
+            }
+            return c;
+        }
+
+        /** Sorted merge of two array containers. */
+        static Container mergeArrays(Container x, Container y, int op) {
+            char[] out = new char[op == OR ? x.cardinality + y.cardinality : x.cardinality];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < x.cardinality && j < y.cardinality) {
+                char vx = x.values[i];
+                char vy = y.values[j];
+                if (vx < vy) {
+                    if (op != AND) out[n++] = vx;
+                    i++;
+                } else if (vx > vy) {
+                    if (op == OR) out[n++] = vy;
+                    j++;
+                } else {
+                    if (op != AND_NOT) out[n++] = vx;
+                    i++;
+                    j++;
+                }
+            }
+            if (op != AND) while (i < x.cardinality) out[n++] = x.values[i++];
+            if (op == OR) while (j < y.cardinality) out[n++] = y.values[j++];
+            Container c = new Container();
+            c.values = out.length == 0 ? new char[4] : out;
+            c.cardinality = n;
+            if (n > ARRAY_MAX) c.toWords();
+            return c;
+        }
+
+        /** Word-wise combine, for when either side is a bitmap. */
+        static Container mergeWords(Container x, Container y, int op) {
+            if (x.words == null) x.toWords();
+            if (y.words == null) y.toWords();
+            Container c = new Container();
+            c.words = new long[WORDS_PER_CHUNK];
+            c.values = null;
+            for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                long v = op == AND ? x.words[w] & y.words[w] : op == OR ? x.words[w] | y.words[w] : x.words[w] & ~y.words[w];
+                c.words[w] = v;
+                c.cardinality += Long.bitCount(v);
+            }
+            if (c.cardinality <= ARRAY_MAX) c.toValues();
+            return c;
+        }
+    }
+}
+
+// ─── Wei accounting ──────────────────────────────────────────────────────────
+
+/**
+ * Signed wei accumulator in the style of LongAdder: adds go to a base long, then to cache-line
+ * padded striped cells once the base is contended. A long cell that would overflow is drained
+ * into a BigInteger spill under a lock, so BigInteger is only touched past ±2^63 per cell.
+ * sum() is exact at quiescence and, like LongAdder, not an atomic snapshot under concurrent adds.
+ */
+final class FocWeiAdder {
+    private static final int STRIDE = 8;
+    private static final int MAX_CELLS = 64;
+    /** Per-thread cell probe, as Striped64 keeps one: random per thread, re-drawn after a failed cell CAS. */
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> new int[] {ThreadLocalRandom.current().nextInt() | 1});
+
+    private final AtomicLong base = new AtomicLong();
+    private volatile AtomicLongArray cells;
+    private BigInteger spill = BigInteger.ZERO;
+
+    void add(long v) {
+        AtomicLongArray cs = cells;
+        if (cs == null) {
+            long b = base.get();
+            long r = b + v;
+            if (((b ^ r) & (v ^ r)) < 0) {
+                if (base.compareAndSet(b, 0)) {
+                    spill(BigInteger.valueOf(b).add(BigInteger.valueOf(v)));
+                    return;
+                }
+            } else if (base.compareAndSet(b, r)) {
+                return;
+            }
+            cs = inflate();
+        }
+        int[] probe = PROBE.get();
+        int mask = cs.length() / STRIDE - 1;
+        for (int i = (probe[0] & mask) * STRIDE; ; i = (advanceProbe(probe) & mask) * STRIDE) {
+            long c = cs.get(i);
+            long r = c + v;
+            if (((c ^ r) & (v ^ r)) < 0) {
+                if (cs.compareAndSet(i, c, 0)) {
+                    spill(BigInteger.valueOf(c).add(BigInteger.valueOf(v)));
+                    return;
+                }
+            } else if (cs.compareAndSet(i, c, r)) {
+                return;
+            }
+        }
+    }
+
+    /** Moves this thread to another cell after contention (xorshift, as Striped64.advanceProbe). */
+    private static int advanceProbe(int[] probe) {
+        int h = probe[0];
+        h ^= h << 13;
+        h ^= h >>> 17;
+        h ^= h << 5;
+        return probe[0] = h;
+    }
+
+    void add(BigInteger v) {
+        if (v.bitLength() < 64) add(v.longValue());
+        else spill(v);
+    }
+
+    BigInteger sum() {
+        return collect(false);
+    }
+
+    /**
+     * Atomically takes each cell's value (getAndSet per cell) and returns the total. Every add
+     * lands either in the returned total or in the adder afterwards; none can be lost.
+     */
+    BigInteger sumThenReset() {
+        return collect(true);
+    }
+
+    private BigInteger collect(boolean reset) {
+        long acc = reset ? base.getAndSet(0) : base.get();
+        BigInteger extra = null;
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = 0; i < cs.length(); i += STRIDE) {
+                long c = reset ? cs.getAndSet(i, 0) : cs.get(i);
+                long r = acc + c;
+                if (((acc ^ r) & (c ^ r)) < 0) {
+                    extra = (extra == null ? BigInteger.ZERO : extra).add(BigInteger.valueOf(acc));
+                    r = c;
+                }
+                acc = r;
+            }
+        }
+        BigInteger total = (reset ? takeSpill() : spilled()).add(BigInteger.valueOf(acc));
+        return extra == null ? total : total.add(extra);
+    }
+
+    private synchronized void spill(BigInteger v) {
+        spill = spill.add(v);
+    }
+
+    private synchronized BigInteger spilled() {
+        return spill;
+    }
+
+    private synchronized BigInteger takeSpill() {
+        BigInteger v = spill;
+        spill = BigInteger.ZERO;
+        return v;
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        AtomicLongArray cs = cells;
+        if (cs == null) {
+            int cellCount = Math.min(MAX_CELLS, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+            cells = cs = new AtomicLongArray(cellCount * STRIDE);
+        }
+        return cs;
+    }
+}
+
+/** Single-threaded wei sum: adds in a long and spills to BigInteger only on overflow. */
+final class FocWeiTally {
+    private long small;
+    private BigInteger big = BigInteger.ZERO;
+
+    void add(long v) {
+        long r = small + v;
+        if (((small ^ r) & (v ^ r)) < 0) {
+            big = big.add(BigInteger.valueOf(small));
+            r = v;
+        }
+        small = r;
+    }
+
+    void add(BigInteger v) {
+        if (v.bitLength() < 64) add(v.longValue());
+        else big = big.add(v);
+    }
+
+    BigInteger sum() {
+        return big.add(BigInteger.valueOf(small));
+    }
+}
+
+// ─── Tip ledger ──────────────────────────────────────────────────────────────
+
+/**
+ * Per-author tip balances plus global tip totals. Every balance is a FocWeiAdder, so a hot author
+ * receiving thousands of tips per second spreads them over striped cells, and a withdraw is one
+ * read-and-reset that cannot lose a concurrently merged tip.
+ * Conservation: received == withdrawn + outstanding + fees, where outstanding is the sum of all
+ * author balances, tracked separately so the check is O(stripes) rather than O(authors).
+ */
+final class FocTipLedger {
+    private final Map<String, FocWeiAdder> balances = new ConcurrentHashMap<>();
+    private final FocWeiAdder received = new FocWeiAdder();
+    private final FocWeiAdder fees = new FocWeiAdder();
+    private final FocWeiAdder withdrawn = new FocWeiAdder();
+    private final FocWeiAdder outstanding = new FocWeiAdder();
+
+    void recordTip(String author, long amountWei, long feeWei) {
+        credit(author, amountWei - feeWei);
+        fees.add(feeWei);
+        received.add(amountWei);
+    }
+
+    void recordTip(String author, BigInteger amountWei, BigInteger feeWei) {
+        BigInteger toAuthor = amountWei.subtract(feeWei);
+        balances.computeIfAbsent(author, k -> new FocWeiAdder()).add(toAuthor);
+        outstanding.add(toAuthor);
+        fees.add(feeWei);
+        received.add(amountWei);
+    }
+
+    /** Applies a batch already summed per author; each global total is touched once. */
+    void recordTips(Map<String, FocWeiTally> toAuthors, BigInteger amountWei, BigInteger feeWei) {
+        BigInteger total = BigInteger.ZERO;
+        for (Map.Entry<String, FocWeiTally> e : toAuthors.entrySet()) {
+            BigInteger share = e.getValue().sum();
+            balances.computeIfAbsent(e.getKey(), k -> new FocWeiAdder()).add(share);
+            total = total.add(share);
+        }
+        outstanding.add(total);
+        fees.add(feeWei);
+        received.add(amountWei);
+    }
+
+    void credit(String author, long toAuthorWei) {
+        balances.computeIfAbsent(author, k -> new FocWeiAdder()).add(toAuthorWei);
+        outstanding.add(toAuthorWei);
+    }
+
+    /** Takes the author's whole balance; returns zero if there was nothing to take. */
+    BigInteger withdraw(String author) {
+        FocWeiAdder balance = balances.get(author);
+        if (balance == null) return BigInteger.ZERO;
+        BigInteger taken = balance.sumThenReset();
+        if (taken.signum() != 0) {
+            outstanding.add(taken.negate());
+            withdrawn.add(taken);
+        }
+        return taken;
+    }
+
+    /** Puts back a withdraw that could not be journaled. */
+    void undoWithdraw(String author, BigInteger amountWei) {
+        balances.computeIfAbsent(author, k -> new FocWeiAdder()).add(amountWei);
+        outstanding.add(amountWei);
+        withdrawn.add(amountWei.negate());
+    }
+
+    /** Replays a withdraw of exactly amountWei; commutes with tips, unlike the read-and-reset of withdraw. */
+    void debit(String author, BigInteger amountWei) {
+        balances.computeIfAbsent(author, k -> new FocWeiAdder()).add(amountWei.negate());
+        outstanding.add(amountWei.negate());
+        withdrawn.add(amountWei);
+    }
+
+    void writeTo(FocSnapshotOutput out) throws IOException {
+        out.writeWei(received.sum());
+        out.writeWei(fees.sum());
+        out.writeWei(withdrawn.sum());
+        out.writeWei(outstanding.sum());
+        for (Map.Entry<String, FocWeiAdder> e : balances.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeWei(e.getValue().sum());
+        }
+        out.writeString(null);
+    }
+
+    /** Loads what writeTo wrote into an empty ledger. */
+    void readFrom(FocSnapshotInput in) throws IOException {
+        received.add(in.readWei());
+        fees.add(in.readWei());
+        withdrawn.add(in.readWei());
+        outstanding.add(in.readWei());
+        for (String author; (author = in.readString()) != null; ) {
+            FocWeiAdder balance = new FocWeiAdder();
+            balance.add(in.readWei());
+            balances.put(author, balance);
+        }
+    }
+
+    Set<String> authors() {
+        return balances.keySet();
+    }
+
+    BigInteger balanceOf(String author) {
+        FocWeiAdder balance = balances.get(author);
+        return balance == null ? BigInteger.ZERO : balance.sum();
+    }
+
+    BigInteger totalReceived() { return received.sum(); }
+    BigInteger totalFees() { return fees.sum(); }
+    BigInteger totalWithdrawn() { return withdrawn.sum(); }
+    BigInteger totalOutstanding() { return outstanding.sum(); }
+
+    /** Cheap O(stripes) check; exact whenever no tip or withdraw is in flight. */
+    boolean isConserved() {
+        return received.sum().equals(withdrawn.sum().add(outstanding.sum()).add(fees.sum()));
+    }
+
+    /** Also checks that the outstanding total matches the sum of every author balance (O(authors)). */
+    boolean isConservedDeep() {
+        BigInteger sum = balances.values().parallelStream().map(FocWeiAdder::sum).reduce(BigInteger.ZERO, BigInteger::add);
+        return isConserved() && sum.equals(outstanding.sum());
+    }
+}
+
+// ─── Recent ring ─────────────────────────────────────────────────────────────
+
+/**
+ * Fixed-capacity multi-producer ring of the most recent ids. A push claims a sequence with one
+ * atomic increment and CASes an immutable entry into its slot, never waiting: a writer lapped by
+ * one a full ring ahead drops its entry, which is already out of the window. Pushes become visible
+ * in sequence order through the published watermark, which whichever writer finds the next slot
+ * filled moves on, so a push stalled between claim and write holds back later ones until it
+ * lands. Reads never wait: they walk back from the watermark and return the contiguous run of
+ * entries still in place, newest first, cut short at the old end if pushes lap the read.
+ */
+final class FocRecentRing {
+    private static final class Entry {
+        final long seq;
+        final long value;
+
+        Entry(long seq, long value) {
+            this.seq = seq;
+            this.value = value;
+        }
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong head = new AtomicLong();
+    /** Every sequence below this has its entry in place, or was lapped. */
+    private final AtomicLong published = new AtomicLong();
+
+    FocRecentRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("FOC: ring capacity must be a power of two");
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    void push(long value) {
+        long seq = head.getAndIncrement();
+        int slot = (int) seq & mask;
+        Entry entry = new Entry(seq, value);
+        for (;;) {
+            Entry current = slots.get(slot);
+            if (current != null && current.seq > seq) break;
+            if (slots.compareAndSet(slot, current, entry)) break;
+        }
+        advance();
+    }
+
+    private void advance() {
+        for (long p = published.get(); ; ) {
+            Entry e = slots.get((int) p & mask);
+            if (e == null || e.seq < p) return;
+            p = published.compareAndSet(p, p + 1) ? p + 1 : published.get();
+        }
+    }
+
+    /** Newest-first copy of the published entries. */
+    long[] snapshot() {
+        long end = published.get();
+        int n = (int) Math.min(end, capacity);
+        long[] out = new long[n];
+        int count = 0;
+        for (long seq = end - 1; seq >= end - n; seq--) {
+            Entry e = slots.get((int) seq & mask);
+            if (e.seq != seq) break;
+            out[count++] = e.value;
+        }
+        return count == n ? out : Arrays.copyOf(out, count);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
+
+// ─── Event log ───────────────────────────────────────────────────────────────
+
+/**
+ * Append-only, segmented event log indexed by sequence number. A sequence is reserved (with one
+ * atomic increment) when its event is journaled and the event is published into that slot once
+ * applied, so sequences are assigned in journal order and published slightly out of order;
+ * readers stop at the first slot still in flight. A reservation whose event never made it to the
+ * journal is abandoned and readers skip it. Segments are created under a lock once per
+ * SEGMENT_SIZE sequences; everything else is lock-free. A log restored from a snapshot starts at
+ * the snapshot's sequence and holds nothing below it. Once backed by a journal, the log keeps only
+ * the newest FOC_EVENT_LOG_WINDOW events or so in memory, dropping a whole segment at a time, and
+ * reads below its window are served from the journal; without one it keeps everything, since it
+ * is the only copy.
+ */
+final class FocEventLog {
+    static final int SEGMENT_SHIFT = 14;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final Object ABANDONED = new Object();
+
+    private static final long WINDOW_SEGMENTS = Math.max(1, FOCConfig.FOC_EVENT_LOG_WINDOW >>> SEGMENT_SHIFT);
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long base;
+    private volatile FocJournal backing;
+    private final ConcurrentLinkedQueue<Runnable> publishWaiters = new ConcurrentLinkedQueue<>();
+    private volatile AtomicReferenceArray<AtomicReferenceArray<Object>> directory =
+            new AtomicReferenceArray<>(64);
+
+    private static final AtomicIntegerFieldUpdater<FocEventLog> WAKE_PENDING =
+            AtomicIntegerFieldUpdater.newUpdater(FocEventLog.class, "wakePending");
+    /** 1 while this log is queued on the notifier; further publishes until it drains add nothing. */
+    private volatile int wakePending;
+
+    /**
+     * One daemon thread, shared by every log, that runs the wakeups; started by the first log with
+     * a waiter. Writers only queue the log and unpark it, so a publish never runs subscriber code.
+     */
+    private static final class Notifier {
+        static final ConcurrentLinkedQueue<FocEventLog> PENDING = new ConcurrentLinkedQueue<>();
+        static final Thread THREAD = new Thread(Notifier::run, "foc-event-notifier");
+
+        static {
+            THREAD.setDaemon(true);
+            THREAD.start();
+        }
+
+        private static void run() {
+            for (;;) {
+                FocEventLog log = PENDING.poll();
+                if (log == null) {
+                    LockSupport.park();
+                    continue;
+                }
+                // Cleared before draining, so a publish that lands while draining queues the log again.
+                log.wakePending = 0;
+                log.wakeWaiters();
+            }
+        }
+    }
+
+    /** Claims the next sequence number; the caller must publish or abandon it. */
+    long reserve() {
+        return tail.getAndIncrement();
+    }
+
+    /** Serves reads below the in-memory window from j, and lets the window move. Set before replaying j. */
+    void backWith(FocJournal j) {
+        backing = j;
+    }
+
+    /**
+     * Publishes the event at the sequence it carries, reserved here or restored by replay. An event
+     * that falls below the window by the time it lands is not kept; the journal already has it.
+     */
+    void publish(FocEvent event) {
+        long seq = event.getSeq();
+        if (seq >= base) segment(seq >>> SEGMENT_SHIFT).set((int) seq & SEGMENT_MASK, event);
+        if (tail.get() <= seq) tail.accumulateAndGet(seq + 1, Math::max);
+        if (!publishWaiters.isEmpty()) requestWake();
+    }
+
+    /** Marks a reserved sequence as never to be published, so readers move past it. */
+    void abandon(long seq) {
+        if (seq >= base) segment(seq >>> SEGMENT_SHIFT).set((int) seq & SEGMENT_MASK, ABANDONED);
+        if (!publishWaiters.isEmpty()) requestWake();
+    }
+
+    /**
+     * Runs wakeup once, on the shared notifier thread, after the next publish or abandon; it must
+     * be quick. A reader registers after finding nothing, then re-reads, so a publish in between
+     * is not missed.
+     */
+    void onPublish(Runnable wakeup) {
+        publishWaiters.add(wakeup);
+    }
+
+    private void requestWake() {
+        if (wakePending == 0 && WAKE_PENDING.compareAndSet(this, 0, 1)) {
+            Notifier.PENDING.add(this);
+            LockSupport.unpark(Notifier.THREAD);
+        }
+    }
+
+    private void wakeWaiters() {
+        for (Runnable r; (r = publishWaiters.poll()) != null; ) {
+            try {
+                r.run();
+            } catch (RuntimeException e) {
+                // A rejecting executor must not stop the notifier; that subscription stays parked.
+            }
+        }
+    }
+
+    /** Abandons every unpublished sequence below the tail; for a quiescent log after replay. */
+    void sealGaps() {
+        for (long seq = base, end = tail.get(); seq < end; seq++) {
+            if (slot(seq) == null) abandon(seq);
+        }
+    }
+
+    /** Moves an empty log (or one that retains nothing) to start at seq; nothing below it is held. */
+    void startAt(long seq) {
+        if (seq > tail.get()) tail.set(seq);
+        base = seq;
+    }
+
+    /** First sequence the log holds in memory; earlier ones are in a snapshot or only in the journal. */
+    long firstSeq() {
+        return base;
+    }
+
+    private AtomicReferenceArray<Object> segment(long index) {
+        AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory;
+        if (index < dir.length()) {
+            AtomicReferenceArray<Object> seg = dir.get((int) index);
+            if (seg != null) return seg;
+        }
+        return createSegment(index);
+    }
+
+    private synchronized AtomicReferenceArray<Object> createSegment(long index) {
+        if (index > Integer.MAX_VALUE - 8) throw new IllegalStateException("FOC: event log full");
+        // A straggler below a window that moved past it writes into a detached segment.
+        if (index < base >>> SEGMENT_SHIFT) return new AtomicReferenceArray<>(SEGMENT_SIZE);
+        AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory;
+        if (index >= dir.length()) {
+            int len = dir.length();
+            while (len <= index) len = (int) Math.min((long) len << 1, Integer.MAX_VALUE - 8);
+            AtomicReferenceArray<AtomicReferenceArray<Object>> grown =
+                    new AtomicReferenceArray<>(len);
+            for (int i = 0; i < dir.length(); i++) grown.set(i, dir.get(i));
+            directory = dir = grown;
+        }
+        AtomicReferenceArray<Object> seg = dir.get((int) index);
+        if (seg == null) {
+            seg = new AtomicReferenceArray<>(SEGMENT_SIZE);
+            dir.set((int) index, seg);
+            if (backing != null && index - WINDOW_SEGMENTS > base >>> SEGMENT_SHIFT) {
+                long keep = index - WINDOW_SEGMENTS;
+                base = keep << SEGMENT_SHIFT;
+                for (long i = keep - 1; i >= 0 && dir.get((int) i) != null; i--) dir.set((int) i, null);
+            }
+        }
+        return seg;
+    }
+
+    private Object slot(long seq) {
+        if (seq < base || seq >= tail.get()) return null;
+        AtomicReferenceArray<AtomicReferenceArray<Object>> dir = directory;
+        long index = seq >>> SEGMENT_SHIFT;
+        if (index >= dir.length()) return null;
+        AtomicReferenceArray<Object> seg = dir.get((int) index);
+        return seg == null ? null : seg.get((int) seq & SEGMENT_MASK);
+    }
+
+    /** Event at seq, or null if that sequence is not published, abandoned or below firstSeq. */
+    FocEvent get(long seq) {
+        Object o = slot(seq);
+        return o instanceof FocEvent e ? e : null;
+    }
+
+    /** True if seq was abandoned and will never be published. */
+    boolean isAbandoned(long seq) {
+        return slot(seq) == ABANDONED;
+    }
+
+    /**
+     * Delivers up to maxEvents published events starting at fromSeq, in order, skipping abandoned
+     * sequences, and returns the sequence to resume from. Below firstSeq events come from the
+     * backing journal, if any, and otherwise are skipped. Stops early at the first sequence still
+     * being written.
+     */
+    long read(long fromSeq, int maxEvents, Consumer<FocEvent> sink) {
+        int[] delivered = {0};
+        long seq = fromSeq;
+        for (;;) {
+            long first = base;
+            FocJournal j = backing;
+            if (seq < first) {
+                if (j == null) {
+                    seq = first;
+                } else {
+                    seq = j.readSeqs(seq, first, maxEvents - delivered[0], ev -> {
+                        delivered[0]++;
+                        sink.accept(ev);
+                    });
+                    if (seq < first) return seq;
+                }
+            }
+            long end = tail.get();
+            for (; seq < end && delivered[0] < maxEvents; seq++) {
+                Object o = slot(seq);
+                if (o == null) break;
+                if (o == ABANDONED) continue;
+                sink.accept((FocEvent) o);
+                delivered[0]++;
+            }
+            // Done, unless the window moved past seq while reading; then the journal has the rest.
+            if (seq >= base || j == null || delivered[0] >= maxEvents) return seq;
+        }
+    }
+
+    /** Next sequence to be reserved; the newest few may still be in flight. */
+    long size() {
+        return tail.get();
+    }
+
+    List<FocEvent> toList() {
+        List<FocEvent> out = new ArrayList<>((int) Math.min(size() - base, Integer.MAX_VALUE - 8));
+        read(0, Integer.MAX_VALUE, out::add);
+        return out;
+    }
+}
+
+enum FocSlowSubscriberPolicy {
+    /** Skips the oldest undelivered events so the subscriber stays within the lag limit. */
+    DROP,
+    /**
+     * Fails the subscription with FocSlowSubscriberException once it exceeds the lag limit. The
+     * lossless choice: resubscribe from the last seq received to catch up from the log.
+     */
+    DISCONNECT
+}
+
+/**
+ * Flow.Publisher over a FocEventLog. Each subscription reads the log from its start sequence,
+ * delivering only as much as the subscriber has requested, in drain tasks run on an Executor (one
+ * at a time per subscription). The log itself is the buffer: a subscription that has caught up
+ * registers with the log and is woken, from the log's notifier thread, after the next publish, so
+ * appends never wait on or schedule a subscriber and idle subscriptions cost nothing. Lag is checked as a subscription drains; one more than
+ * maxLag events behind the log's tail is handled by its FocSlowSubscriberPolicy.
+ */
+final class FocEventPublisher implements Flow.Publisher<FocEvent> {
+    /**
+     * A cached pool of daemon threads, kept apart from the common pool so a subscriber that blocks
+     * in onNext cannot starve the parallel hashing in submitSnippetBatch.
+     */
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "foc-subscriber");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Events read from the journal per step when a subscription is below the log's window. */
+    private static final int BACKLOG_BATCH = 256;
+
+    private final FocEventLog log;
+    private final long fromSeq;
+    private final FocSlowSubscriberPolicy policy;
+    private final long maxLag;
+    private final Executor executor;
+
+    FocEventPublisher(FocEventLog log, long fromSeq, FocSlowSubscriberPolicy policy, long maxLag) {
+        this(log, fromSeq, policy, maxLag, DEFAULT_EXECUTOR);
+    }
+
+    FocEventPublisher(FocEventLog log, long fromSeq, FocSlowSubscriberPolicy policy, long maxLag, Executor executor) {
+        if (maxLag <= 0) throw new IllegalArgumentException("FOC: subscriber lag limit must be positive");
+        this.log = log;
+        this.fromSeq = Math.max(0, fromSeq);
+        this.policy = Objects.requireNonNull(policy);
+        this.maxLag = maxLag;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super FocEvent> subscriber) {
+        new Subscription(Objects.requireNonNull(subscriber)).signal();
+    }
+
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super FocEvent> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        /** Signals not yet drained; the signal that moves it off zero schedules the drain task. */
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean waiting = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private boolean subscribed;
+        private long next = fromSeq;
+
+        Subscription(Flow.Subscriber<? super FocEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("FOC: non-positive request " + n);
+            } else {
+                demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() == 0) executor.execute(this);
+        }
+
+        private void wake() {
+            waiting.set(false);
+            signal();
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (cancelled) return;
+            try {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (!cancelled) {
+                    if (invalidRequest != null) {
+                        fail(invalidRequest);
+                        return;
+                    }
+                    long lag = log.size() - next;
+                    if (lag > maxLag) {
+                        if (policy == FocSlowSubscriberPolicy.DISCONNECT) {
+                            fail(new FocSlowSubscriberException(lag));
+                            return;
+                        }
+                        next += lag - maxLag;
+                    }
+                    if (demand.get() == 0) return;
+                    if (next < log.firstSeq()) {
+                        // Below the log's in-memory window: page the backlog in from its journal.
+                        next = log.read(next, (int) Math.min(demand.get(), BACKLOG_BATCH), this::deliver);
+                        continue;
+                    }
+                    if (log.isAbandoned(next)) {
+                        next++;
+                        continue;
+                    }
+                    FocEvent e = log.get(next);
+                    if (e == null) {
+                        // Caught up: ask to be woken by the next publish, then look once more in
+                        // case it landed before we registered.
+                        if (waiting.compareAndSet(false, true)) log.onPublish(this::wake);
+                        if (log.get(next) == null && !log.isAbandoned(next)) return;
+                        continue;
+                    }
+                    next++;
+                    deliver(e);
+                }
+            } catch (RuntimeException e) {
+                // A subscriber must not throw (Reactive Streams rule 2.13); report it, then stop.
+                fail(e);
+            }
+        }
+
+        private void deliver(FocEvent e) {
+            if (cancelled) return;
+            if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+            subscriber.onNext(e);
+        }
+
+        private void fail(Throwable t) {
+            cancelled = true;
+            try {
+                subscriber.onError(t);
+            } catch (RuntimeException ignored) {
+                // Nothing further can be delivered to a subscriber whose onError throws.
+            }
+        }
+    }
+}
+
+// ─── Dense id store ──────────────────────────────────────────────────────────
+
+/**
+ * Replaces a Map<Long, T> for ids handed out by an AtomicLong: id >>> PAGE_SHIFT picks a page and
+ * the low bits a slot, so a lookup is two array reads with no boxing or hash node per entry.
+ * Pages are allocated on first write and the page directory is grown under a lock, as in
+ * FocEventLog; slot writes are volatile, so a reader never sees a partly constructed value.
+ */
+final class FocChunkedStore<T> {
+    static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    interface Visitor<T> {
+        void visit(long id, T value);
+    }
+
+    private final AtomicLong highestId = new AtomicLong();
+    private volatile AtomicReferenceArray<AtomicReferenceArray<T>> directory = new AtomicReferenceArray<>(16);
+
+    T get(long id) {
+        if (id < 0) return null;
+        AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+        long index = id >>> PAGE_SHIFT;
+        if (index >= dir.length()) return null;
+        AtomicReferenceArray<T> page = dir.get((int) index);
+        return page == null ? null : page.get((int) id & PAGE_MASK);
+    }
+
+    void put(long id, T value) {
+        if (id < 0) throw new IllegalArgumentException("FOC: negative id " + id);
+        page(id >>> PAGE_SHIFT).set((int) id & PAGE_MASK, value);
+        highestId.accumulateAndGet(id, Math::max);
+    }
+
+    boolean contains(long id) {
+        return get(id) != null;
+    }
+
+    /** Clears id's slot; highestId is unchanged. */
+    void remove(long id) {
+        AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+        long index = id >>> PAGE_SHIFT;
+        if (id < 0 || index >= dir.length()) return;
+        AtomicReferenceArray<T> page = dir.get((int) index);
+        if (page != null) page.set((int) id & PAGE_MASK, null);
+    }
+
+    /** Returns the value at id, storing factory's value first if there is none; the factory runs at most once per id. */
+    T computeIfAbsent(long id, LongFunction<? extends T> factory) {
+        T v = get(id);
+        return v != null ? v : createIfAbsent(id, factory);
+    }
+
+    private synchronized T createIfAbsent(long id, LongFunction<? extends T> factory) {
+        T v = get(id);
+        if (v == null) {
+            v = factory.apply(id);
+            put(id, v);
+        }
+        return v;
+    }
+
+    /** Highest id ever stored; every present id is at most this. */
+    long highestId() {
+        return highestId.get();
+    }
+
+    /** Visits present values in id order; values stored concurrently may or may not be seen. */
+    void forEach(Visitor<? super T> visitor) {
+        AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+        long pages = Math.min(dir.length(), (highestId.get() >>> PAGE_SHIFT) + 1);
+        for (int p = 0; p < pages; p++) {
+            AtomicReferenceArray<T> page = dir.get(p);
+            if (page == null) continue;
+            long base = (long) p << PAGE_SHIFT;
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                T v = page.get(i);
+                if (v != null) visitor.visit(base + i, v);
+            }
+        }
+    }
+
+    private AtomicReferenceArray<T> page(long index) {
+        AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+        if (index < dir.length()) {
+            AtomicReferenceArray<T> page = dir.get((int) index);
+            if (page != null) return page;
+        }
+        return createPage(index);
+    }
+
+    private synchronized AtomicReferenceArray<T> createPage(long index) {
+        if (index > Integer.MAX_VALUE - 8) throw new IllegalStateException("FOC: id store full");
+        AtomicReferenceArray<AtomicReferenceArray<T>> dir = directory;
+        if (index >= dir.length()) {
+            int len = dir.length();
+            while (len <= index) len = (int) Math.min((long) len << 1, Integer.MAX_VALUE - 8);
+            AtomicReferenceArray<AtomicReferenceArray<T>> grown = new AtomicReferenceArray<>(len);
+            for (int i = 0; i < dir.length(); i++) grown.set(i, dir.get(i));
+            directory = dir = grown;
+        }
+        AtomicReferenceArray<T> page = dir.get((int) index);
+        if (page == null) {
+            page = new AtomicReferenceArray<>(PAGE_SIZE);
+            dir.set((int) index, page);
+        }
+        return page;
+    }
+}
+
+// ─── Snippet storage ─────────────────────────────────────────────────────────
+
+enum FocSnippetStorage {
+    /** One FocHeapSnippetRecord object per snippet. */
+    HEAP,
+    /** Fixed-width off-heap columns; records are flyweight views, so heap use does not grow with snippets. */
+    OFF_HEAP
+}
+
+interface FocSnippetStore {
+    /** The record for id, or null if no snippet with that id has been published. */
+    FocSnippetRecord get(long id);
+
+    /** Publishes a new snippet under id and returns its record. */
+    FocSnippetRecord create(long id, String author, FocHash256 contentHash, FocLanguage language, long createdAt);
+
+    /** Visits published snippets in id order. */
+    void forEach(FocChunkedStore.Visitor<? super FocSnippetRecord> visitor);
+
+    /** True if id is published and not deleted; allocates nothing, unlike get. */
+    boolean isLive(long id);
+
+    /** The reputation score of a live id, or -1 if it is not live; allocates nothing, unlike get. */
+    long reputationOf(long id);
+
+    /** True if id is published with content hash h; allocates nothing, unlike get. */
+    boolean hasContentHash(long id, FocHash256 h);
+
+    /** The author's previous snippet id before id (0 = none); callers hold the author's FocAuthorIndex lock. */
+    long prevByAuthor(long id);
+
+    void setPrevByAuthor(long id, long prevId);
+}
+
+final class FocHeapSnippetStore implements FocSnippetStore {
+    private final FocChunkedStore<FocSnippetRecord> records = new FocChunkedStore<>();
+
+    @Override
+    public FocSnippetRecord get(long id) {
+        return records.get(id);
+    }
+
+    @Override
+    public FocSnippetRecord create(long id, String author, FocHash256 contentHash, FocLanguage language, long createdAt) {
+        FocSnippetRecord r = new FocHeapSnippetRecord(author, contentHash, language, createdAt);
+        records.put(id, r);
+        return r;
+    }
+
+    @Override
+    public void forEach(FocChunkedStore.Visitor<? super FocSnippetRecord> visitor) {
+        records.forEach(visitor);
+    }
+
+    @Override
+    public boolean isLive(long id) {
+        FocSnippetRecord r = records.get(id);
+        return r != null && !r.isDeleted();
+    }
+
+    @Override
+    public long reputationOf(long id) {
+        FocSnippetRecord r = records.get(id);
+        return r == null || r.isDeleted() ? -1 : r.getReputationScore();
+    }
+
+    @Override
+    public boolean hasContentHash(long id, FocHash256 h) {
+        FocSnippetRecord r = records.get(id);
+        return r != null && r.getContentHash().equals(h);
+    }
+
+    @Override
+    public long prevByAuthor(long id) {
+        return ((FocHeapSnippetRecord) records.get(id)).prevByAuthor;
+    }
+
+    @Override
+    public void setPrevByAuthor(long id, long prevId) {
+        ((FocHeapSnippetRecord) records.get(id)).prevByAuthor = prevId;
+    }
+}
+
+/** Interns account strings as dense int ids starting at 1, so off-heap rows can refer to them. */
+final class FocAccountIds {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final FocChunkedStore<String> names = new FocChunkedStore<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    int intern(String account) {
+        Integer id = ids.get(account);
+        if (id != null) return id;
+        return ids.computeIfAbsent(account, k -> {
+            int assigned = next.incrementAndGet();
+            names.put(assigned, k);
+            return assigned;
+        });
+    }
+
+    String name(int id) {
+        return names.get(id);
+    }
+
+    int size() {
+        return next.get();
+    }
+}
+
+/**
+ * Snippet fields in off-heap columns. Each page holds FocChunkedStore.PAGE_SIZE rows in one direct
+ * buffer laid out column by column (all authors, then all languages, ...), and rows are addressed
+ * by id like FocChunkedStore. Fields are read and written through VarHandle views, with CAS where
+ * the heap record uses field updaters. The 32-byte content hash cannot be swapped atomically, so
+ * each row has a sequence word: writers take a striped lock and bump it around the write, and
+ * readers retry until they see the same even value on both sides of their read. Tip balances that
+ * overflow a long spill into a small on-heap map, exactly as the heap record spills to BigInteger.
+ */
+final class FocSnippetColumns implements FocSnippetStore {
+    static final int ROWS = FocChunkedStore.PAGE_SIZE;
+    private static final int ROW_MASK = ROWS - 1;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // Column offsets within a page; 0 in the author column marks an unpublished row.
+    static final int AUTHOR = 0;
+    static final int LANGUAGE = AUTHOR + 4 * ROWS;
+    static final int DELETED = LANGUAGE + 4 * ROWS;
+    static final int HASH_SEQ = DELETED + 4 * ROWS;
+    static final int CREATED_AT = HASH_SEQ + 4 * ROWS;
+    static final int UPDATED_AT = CREATED_AT + 8 * ROWS;
+    static final int TIP_BALANCE = UPDATED_AT + 8 * ROWS;
+    static final int REPUTATION = TIP_BALANCE + 8 * ROWS;
+    static final int PREV_BY_AUTHOR = REPUTATION + 8 * ROWS;
+    static final int CONTENT_HASH = PREV_BY_AUTHOR + 8 * ROWS;
+    static final int PAGE_BYTES = CONTENT_HASH + 32 * ROWS;
+
+    private final FocChunkedStore<ByteBuffer> pages = new FocChunkedStore<>();
+    private final FocAccountIds accounts = new FocAccountIds();
+    private final FocLanguageRegistry languages;
+    private final Map<Long, BigInteger> tipSpill = new ConcurrentHashMap<>();
+    private final Object[] hashLocks = new Object[64];
+    private final Object[] tipLocks = new Object[64];
+
+    FocSnippetColumns(FocLanguageRegistry languages) {
+        this.languages = languages;
+        for (int i = 0; i < hashLocks.length; i++) hashLocks[i] = new Object();
+        for (int i = 0; i < tipLocks.length; i++) tipLocks[i] = new Object();
+    }
+
+    @Override
+    public FocSnippetRecord get(long id) {
+        ByteBuffer page = pages.get(id >>> FocChunkedStore.PAGE_SHIFT);
+        if (page == null) return null;
+        int row = (int) id & ROW_MASK;
+        return (int) INT.getAcquire(page, AUTHOR + 4 * row) == 0 ? null : new FocSnippetView(this, page, row, id);
+    }
+
+    @Override
+    public FocSnippetRecord create(long id, String author, FocHash256 contentHash, FocLanguage language, long createdAt) {
+        ByteBuffer page = pages.computeIfAbsent(id >>> FocChunkedStore.PAGE_SHIFT, k -> allocatePage());
+        int row = (int) id & ROW_MASK;
+        INT.set(page, LANGUAGE + 4 * row, language.getOrdinal());
+        LONG.set(page, CREATED_AT + 8 * row, createdAt);
+        LONG.set(page, UPDATED_AT + 8 * row, createdAt);
+        writeHash(page, row, contentHash);
+        INT.setRelease(page, AUTHOR + 4 * row, accounts.intern(author));
+        return new FocSnippetView(this, page, row, id);
+    }
+
+    @Override
+    public void forEach(FocChunkedStore.Visitor<? super FocSnippetRecord> visitor) {
+        pages.forEach((pageIndex, page) -> {
+            long base = pageIndex << FocChunkedStore.PAGE_SHIFT;
+            for (int row = 0; row < ROWS; row++) {
+                if ((int) INT.getAcquire(page, AUTHOR + 4 * row) != 0) visitor.visit(base + row, new FocSnippetView(this, page, row, base + row));
+            }
+        });
+    }
+
+    @Override
+    public boolean isLive(long id) {
+        ByteBuffer page = pages.get(id >>> FocChunkedStore.PAGE_SHIFT);
+        if (page == null) return false;
+        int row = (int) id & ROW_MASK;
+        return (int) INT.getAcquire(page, AUTHOR + 4 * row) != 0 && !isDeleted(page, row);
+    }
+
+    @Override
+    public long reputationOf(long id) {
+        ByteBuffer page = pages.get(id >>> FocChunkedStore.PAGE_SHIFT);
+        if (page == null) return -1;
+        int row = (int) id & ROW_MASK;
+        if ((int) INT.getAcquire(page, AUTHOR + 4 * row) == 0 || isDeleted(page, row)) return -1;
+        return getLong(page, REPUTATION, row);
+    }
+
+    @Override
+    public boolean hasContentHash(long id, FocHash256 h) {
+        ByteBuffer page = pages.get(id >>> FocChunkedStore.PAGE_SHIFT);
+        if (page == null) return false;
+        int row = (int) id & ROW_MASK;
+        if ((int) INT.getAcquire(page, AUTHOR + 4 * row) == 0) return false;
+        int seqOff = HASH_SEQ + 4 * row;
+        int off = CONTENT_HASH + 32 * row;
+        for (;;) {
+            int before = (int) INT.getAcquire(page, seqOff);
+            if ((before & 1) == 0) {
+                boolean same = (long) LONG.getOpaque(page, off) == h.w0 && (long) LONG.getOpaque(page, off + 8) == h.w1
+                        && (long) LONG.getOpaque(page, off + 16) == h.w2 && (long) LONG.getOpaque(page, off + 24) == h.w3;
+                VarHandle.acquireFence();
+                if ((int) INT.getOpaque(page, seqOff) == before) return same;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public long prevByAuthor(long id) {
+        return (long) LONG.get(pages.get(id >>> FocChunkedStore.PAGE_SHIFT), PREV_BY_AUTHOR + 8 * ((int) id & ROW_MASK));
+    }
+
+    @Override
+    public void setPrevByAuthor(long id, long prevId) {
+        LONG.set(pages.get(id >>> FocChunkedStore.PAGE_SHIFT), PREV_BY_AUTHOR + 8 * ((int) id & ROW_MASK), prevId);
+    }
+
+    /** Off-heap bytes currently reserved for rows. */
+    long offHeapBytes() {
+        long[] n = new long[1];
+        pages.forEach((i, p) -> n[0] += PAGE_BYTES);
+        return n[0];
+    }
+
+    private static ByteBuffer allocatePage() {
+        // Over-allocate so the slice can start 8-byte aligned; VarHandle atomics require it.
+        return ByteBuffer.allocateDirect(PAGE_BYTES + 8).alignedSlice(8).order(ByteOrder.nativeOrder());
+    }
+
+    String author(ByteBuffer page, int row) {
+        return accounts.name((int) INT.getAcquire(page, AUTHOR + 4 * row));
+    }
+
+    FocLanguage language(ByteBuffer page, int row) {
+        return languages.byOrdinal((int) INT.get(page, LANGUAGE + 4 * row));
+    }
+
+    FocHash256 readHash(ByteBuffer page, int row) {
+        int seqOff = HASH_SEQ + 4 * row;
+        int off = CONTENT_HASH + 32 * row;
+        for (;;) {
+            int before = (int) INT.getAcquire(page, seqOff);
+            if ((before & 1) == 0) {
+                long w0 = (long) LONG.getOpaque(page, off);
+                long w1 = (long) LONG.getOpaque(page, off + 8);
+                long w2 = (long) LONG.getOpaque(page, off + 16);
+                long w3 = (long) LONG.getOpaque(page, off + 24);
+                VarHandle.acquireFence();
+                if ((int) INT.getOpaque(page, seqOff) == before) return new FocHash256(w0, w1, w2, w3);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    FocHash256 swapHash(ByteBuffer page, int row, FocHash256 h) {
+        synchronized (hashLocks[row & (hashLocks.length - 1)]) {
+            FocHash256 old = readHash(page, row);
+            writeHash(page, row, h);
+            return old;
+        }
+    }
+
+    /** Callers hold the row's hash lock, or own the row because it is not yet published. */
+    private static void writeHash(ByteBuffer page, int row, FocHash256 h) {
+        int seqOff = HASH_SEQ + 4 * row;
+        int off = CONTENT_HASH + 32 * row;
+        int seq = (int) INT.getOpaque(page, seqOff);
+        INT.setOpaque(page, seqOff, seq + 1);
+        VarHandle.releaseFence();
+        LONG.setOpaque(page, off, h.w0);
+        LONG.setOpaque(page, off + 8, h.w1);
+        LONG.setOpaque(page, off + 16, h.w2);
+        LONG.setOpaque(page, off + 24, h.w3);
+        INT.setRelease(page, seqOff, seq + 2);
+    }
+
+    static long getLong(ByteBuffer page, int column, int row) {
+        return (long) LONG.getVolatile(page, column + 8 * row);
+    }
+
+    static void setLong(ByteBuffer page, int column, int row, long v) {
+        LONG.setVolatile(page, column + 8 * row, v);
+    }
+
+    static boolean casLong(ByteBuffer page, int column, int row, long expect, long update) {
+        return LONG.compareAndSet(page, column + 8 * row, expect, update);
+    }
+
+    static long addLong(ByteBuffer page, int column, int row, long delta) {
+        return (long) LONG.getAndAdd(page, column + 8 * row, delta) + delta;
+    }
+
+    static boolean isDeleted(ByteBuffer page, int row) {
+        return (int) INT.getVolatile(page, DELETED + 4 * row) != 0;
+    }
+
+    static void setDeleted(ByteBuffer page, int row, boolean d) {
+        INT.setVolatile(page, DELETED + 4 * row, d ? 1 : 0);
+    }
+
+    static boolean markDeleted(ByteBuffer page, int row) {
+        return INT.compareAndSet(page, DELETED + 4 * row, 0, 1);
+    }
+
+    BigInteger tipSpill(long id) {
+        return tipSpill.get(id);
+    }
+
+    /** Guards moving a row's long tip balance into the spill; striped like the hash locks. */
+    Object tipLock(int row) {
+        return tipLocks[row & (tipLocks.length - 1)];
+    }
+
+    void spillTip(long id, BigInteger v) {
+        tipSpill.merge(id, v, BigInteger::add);
+    }
+}
+
+/** Flyweight over one FocSnippetColumns row; cheap to create and holds no snippet state itself. */
+final class FocSnippetView extends FocSnippetRecord {
+    private final FocSnippetColumns columns;
+    private final ByteBuffer page;
+    private final int row;
+    private final long id;
+
+    FocSnippetView(FocSnippetColumns columns, ByteBuffer page, int row, long id) {
+        this.columns = columns;
+        this.page = page;
+        this.row = row;
+        this.id = id;
+    }
+
+    public String getAuthor() { return columns.author(page, row); }
+    public FocHash256 getContentHash() { return columns.readHash(page, row); }
+    FocHash256 swapContentHash(FocHash256 h) { return columns.swapHash(page, row, h); }
+    public FocLanguage getLanguage() { return columns.language(page, row); }
+    public long getCreatedAt() { return FocSnippetColumns.getLong(page, FocSnippetColumns.CREATED_AT, row); }
+    public long getUpdatedAt() { return FocSnippetColumns.getLong(page, FocSnippetColumns.UPDATED_AT, row); }
+    public void setUpdatedAt(long t) { FocSnippetColumns.setLong(page, FocSnippetColumns.UPDATED_AT, row, t); }
+
+    /** Read under the row's spill lock, as FocHeapSnippetRecord does. */
+    public BigInteger getTipBalance() {
+        synchronized (columns.tipLock(row)) {
+            BigInteger spill = columns.tipSpill(id);
+            BigInteger wei = BigInteger.valueOf(FocSnippetColumns.getLong(page, FocSnippetColumns.TIP_BALANCE, row));
+            return spill == null ? wei : wei.add(spill);
+        }
+    }
+
+    void addTipBalance(long v) {
+        for (;;) {
+            long cur = FocSnippetColumns.getLong(page, FocSnippetColumns.TIP_BALANCE, row);
+            long next = cur + v;
+            if (((cur ^ next) & (v ^ next)) < 0) {
+                synchronized (columns.tipLock(row)) {
+                    if (FocSnippetColumns.casLong(page, FocSnippetColumns.TIP_BALANCE, row, cur, 0L)) {
+                        spillTipBalance(BigInteger.valueOf(cur).add(BigInteger.valueOf(v)));
+                        return;
+                    }
+                }
+            } else if (FocSnippetColumns.casLong(page, FocSnippetColumns.TIP_BALANCE, row, cur, next)) {
+                return;
+            }
+        }
+    }
+
+    void spillTipBalance(BigInteger v) { columns.spillTip(id, v); }
+    public long getReputationScore() { return FocSnippetColumns.getLong(page, FocSnippetColumns.REPUTATION, row); }
+    public void setReputationScore(long s) { FocSnippetColumns.setLong(page, FocSnippetColumns.REPUTATION, row, s); }
+    boolean casReputationScore(long expect, long update) { return FocSnippetColumns.casLong(page, FocSnippetColumns.REPUTATION, row, expect, update); }
+    void addReputationScore(long delta) { FocSnippetColumns.addLong(page, FocSnippetColumns.REPUTATION, row, delta); }
+    public boolean isDeleted() { return FocSnippetColumns.isDeleted(page, row); }
+    public void setDeleted(boolean d) { FocSnippetColumns.setDeleted(page, row, d); }
+    boolean markDeleted() { return FocSnippetColumns.markDeleted(page, row); }
+    void unmarkDeleted() { FocSnippetColumns.setDeleted(page, row, false); }
+}
+
+// ─── Snippet indexes ─────────────────────────────────────────────────────────
+
+/**
+ * Content-hash index: a primitive open-addressing multimap from a hash's first 64 bits to snippet
+ * ids, so indexing a snippet allocates nothing (no key object, map node, id set or boxed id). The
+ * 64-bit fingerprint can in principle collide, so every match is confirmed against the hash the
+ * store holds for that id. Striped by fingerprint; each stripe is a synchronized linear-probing
+ * table that doubles at half load and drops tombstones when it rehashes.
+ */
+final class FocContentHashIndex {
+    private static final int STRIPE_SHIFT = 6;
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = -1L;
+
+    private final FocSnippetStore store;
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_SHIFT];
+
+    private static final class Stripe {
+        long[] keys = new long[16];
+        long[] ids = new long[16];
+        int used;
+        int live;
+    }
+
+    FocContentHashIndex(FocSnippetStore store) {
+        this.store = store;
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe();
+    }
+
+    private Stripe stripe(long fp) {
+        return stripes[(int) (fp >>> (64 - STRIPE_SHIFT))];
+    }
+
+    void add(FocHash256 h, long id) {
+        long fp = h.w0;
+        Stripe st = stripe(fp);
+        synchronized (st) {
+            if ((st.used + 1) * 2 > st.keys.length) rehash(st);
+            int mask = st.keys.length - 1;
+            int free = -1;
+            for (int i = (int) fp & mask; ; i = (i + 1) & mask) {
+                long v = st.ids[i];
+                if (v == EMPTY) {
+                    if (free < 0) {
+                        free = i;
+                        st.used++;
+                    }
+                    break;
+                }
+                if (v == TOMBSTONE) {
+                    if (free < 0) free = i;
+                } else if (v == id && st.keys[i] == fp) {
+                    return;
+                }
+            }
+            st.keys[free] = fp;
+            st.ids[free] = id;
+            st.live++;
+        }
+    }
+
+    void remove(FocHash256 h, long id) {
+        long fp = h.w0;
+        Stripe st = stripe(fp);
+        synchronized (st) {
+            int mask = st.keys.length - 1;
+            for (int i = (int) fp & mask; st.ids[i] != EMPTY; i = (i + 1) & mask) {
+                if (st.ids[i] == id && st.keys[i] == fp) {
+                    st.ids[i] = TOMBSTONE;
+                    st.live--;
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Lowest live id whose content hash is h, or 0. */
+    long firstLive(FocHash256 h) {
+        long fp = h.w0;
+        Stripe st = stripe(fp);
+        long first = 0;
+        synchronized (st) {
+            int mask = st.keys.length - 1;
+            for (int i = (int) fp & mask; st.ids[i] != EMPTY; i = (i + 1) & mask) {
+                long id = st.ids[i];
+                if (id > 0 && st.keys[i] == fp && (first == 0 || id < first) && store.isLive(id) && store.hasContentHash(id, h)) first = id;
+            }
+        }
+        return first;
+    }
+
+    /** Live ids whose content hash is h, ascending. */
+    List<Long> liveIds(FocHash256 h) {
+        long fp = h.w0;
+        Stripe st = stripe(fp);
+        List<Long> out = new ArrayList<>();
+        synchronized (st) {
+            int mask = st.keys.length - 1;
+            for (int i = (int) fp & mask; st.ids[i] != EMPTY; i = (i + 1) & mask) {
+                long id = st.ids[i];
+                if (id > 0 && st.keys[i] == fp && store.isLive(id) && store.hasContentHash(id, h)) out.add(id);
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static void rehash(Stripe st) {
+        long[] keys = st.keys;
+        long[] ids = st.ids;
+        int cap = keys.length;
+        while ((st.live + 1) * 2 > cap / 2) cap <<= 1;
+        st.keys = new long[cap];
+        st.ids = new long[cap];
+        st.used = st.live;
+        int mask = cap - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (ids[j] <= 0) continue;
+            int i = (int) keys[j] & mask;
+            while (st.ids[i] != EMPTY) i = (i + 1) & mask;
+            st.keys[i] = keys[j];
+            st.ids[i] = ids[j];
+        }
+    }
+}
+
+/**
+ * Each author's snippet ids as a newest-first chain threaded through the store's prev-by-author
+ * slot, so the only heap per author is one small head object and none is spent per snippet.
+ */
+final class FocAuthorIndex {
+    private static final class Chain {
+        long head;
+        int size;
+    }
+
+    private final FocSnippetStore store;
+    private final Map<String, Chain> chains = new ConcurrentHashMap<>();
+
+    FocAuthorIndex(FocSnippetStore store) {
+        this.store = store;
+    }
+
+    /** Links a just-published id into author's chain. */
+    void add(String author, long id) {
+        Chain c = chains.computeIfAbsent(author, k -> new Chain());
+        synchronized (c) {
+            store.setPrevByAuthor(id, c.head);
+            c.head = id;
+            c.size++;
+        }
+    }
+
+    /** Every id the author ever published, deleted ones included, ascending. */
+    long[] ids(String author) {
+        Chain c = chains.get(author);
+        if (c == null) return new long[0];
+        long[] out;
+        synchronized (c) {
+            out = new long[c.size];
+            int n = 0;
+            for (long id = c.head; id != 0; id = store.prevByAuthor(id)) out[n++] = id;
+        }
+        Arrays.sort(out);
+        return out;
+    }
+
+    Set<String> authors() {
+        return chains.keySet();
+    }
+}
+
+// ─── Language registry ───────────────────────────────────────────────────────
+
+/** A registered language: dense ordinal assigned once at registration, plus its live snippet counter. */
+final class FocLanguage {
+    private final int ordinal;
+    private final FocHash256 hash;
+    private final FocIdBitmap liveSnippets = new FocIdBitmap();
+
+    FocLanguage(int ordinal, FocHash256 hash) {
+        this.ordinal = ordinal;
+        this.hash = hash;
+    }
+
+    public int getOrdinal() { return ordinal; }
+    public FocHash256 getHash() { return hash; }
+    public String getHashHex() { return hash.toHex(); }
+    public long getSnippetCount() { return liveSnippets.cardinality(); }
+    void addSnippet(long snippetId) { liveSnippets.add(snippetId); }
+    void removeSnippet(long snippetId) { liveSnippets.remove(snippetId); }
+    /** Live snippet ids in this language; kept current by submit and delete, read-only for callers. */
+    FocIdBitmap liveSnippets() { return liveSnippets; }
+}
+
+/**
+ * Maps language names and language hashes to FocLanguage entries with dense ordinals.
+ * Names are hashed once, on first use, and cached; the submit path is a single map hit.
+ */
+final class FocLanguageRegistry {
+    private final Map<FocHash256, FocLanguage> byHash = new ConcurrentHashMap<>();
+    private final Map<String, FocLanguage> byName = new ConcurrentHashMap<>();
+    private volatile FocLanguage[] byOrdinal = new FocLanguage[0];
+
+    /** Registers a language hash; returns null if it was already registered. */
+    synchronized FocLanguage register(FocHash256 hash) {
+        if (byHash.containsKey(hash)) return null;
+        FocLanguage[] cur = byOrdinal;
+        FocLanguage lang = new FocLanguage(cur.length, hash);
+        FocLanguage[] next = Arrays.copyOf(cur, cur.length + 1);
+        next[lang.getOrdinal()] = lang;
+        byOrdinal = next;
+        byHash.put(hash, lang);
+        return lang;
+    }
+
+    FocLanguage registerName(String name) {
+        FocLanguage lang = register(FocHashUtil.languageHash(name));
+        if (lang != null) byName.put(name, lang);
+        return lang;
+    }
+
+    /** Resolves a language by name; only registered names are cached, so unknown names cannot grow the cache. */
+    FocLanguage byName(String name) {
+        FocLanguage lang = byName.get(name);
+        if (lang != null) return lang;
+        lang = byHash.get(FocHashUtil.languageHash(name));
+        if (lang != null) byName.putIfAbsent(name, lang);
+        return lang;
+    }
+
+    FocLanguage byHash(FocHash256 hash) {
+        return hash == null ? null : byHash.get(hash);
+    }
+
+    FocLanguage byOrdinal(int ordinal) {
+        FocLanguage[] cur = byOrdinal;
+        return ordinal >= 0 && ordinal < cur.length ? cur[ordinal] : null;
+    }
+
+    int size() {
+        return byOrdinal.length;
+    }
+}
+
+// ─── Hash value ──────────────────────────────────────────────────────────────
+
+/**
+ * Immutable 32-byte SHA-256 value held as four big-endian longs (48 bytes of heap instead of
+ * a 64-char String). Hex is only produced at the API edge via toHex().
+ */
+final class FocHash256 {
+    final long w0;
+    final long w1;
+    final long w2;
+    final long w3;
+
+    FocHash256(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    static FocHash256 of(byte[] b, int off) {
+        return new FocHash256(readLong(b, off), readLong(b, off + 8), readLong(b, off + 16), readLong(b, off + 24));
+    }
+
+    /** Parses 64 hex chars (optionally 0x-prefixed, either case); throws FocInvalidHashException otherwise. */
+    static FocHash256 fromHex(String hex) {
+        FocHash256 h = parseHexOrNull(hex);
+        if (h == null) throw new FocInvalidHashException();
+        return h;
+    }
+
+    static FocHash256 parseHexOrNull(String hex) {
+        if (hex == null) return null;
+        int start = hex.startsWith("0x") || hex.startsWith("0X") ? 2 : 0;
+        if (hex.length() - start != FocHashUtil.SHA256_BYTES * 2) return null;
+        long[] w = new long[4];
+        for (int i = 0; i < 64; i++) {
+            int d = Character.digit(hex.charAt(start + i), 16);
+            if (d < 0) return null;
+            w[i >>> 4] = (w[i >>> 4] << 4) | d;
+        }
+        return new FocHash256(w[0], w[1], w[2], w[3]);
+    }
+
+    void copyTo(byte[] out, int off) {
+        writeLong(out, off, w0);
+        writeLong(out, off + 8, w1);
+        writeLong(out, off + 16, w2);
+        writeLong(out, off + 24, w3);
+    }
+
+    String toHex() {
+        char[] out = new char[64];
+        FocHashUtil.toHex(w0, out, 0);
+        FocHashUtil.toHex(w1, out, 16);
+        FocHashUtil.toHex(w2, out, 32);
+        FocHashUtil.toHex(w3, out, 48);
+        return new String(out);
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (b[off + i] & 0xffL);
+        return v;
+    }
+
+    private static void writeLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FocHash256)) return false;
+        FocHash256 h = (FocHash256) o;
+        return w0 == h.w0 && w1 == h.w1 && w2 == h.w2 && w3 == h.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        // SHA-256 output is uniformly distributed; the leading word is already a good hash.
+        return (int) (w0 ^ (w0 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
+
+// ─── Hash helper ─────────────────────────────────────────────────────────────
+
+/**
+ * SHA-256 helpers. MessageDigest is not thread-safe, so each thread keeps its own
+ * digest and scratch buffer; hex encoding is table-driven and never goes through String.format.
+ */
+final class FocHashUtil {
+    static final int SHA256_BYTES = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 unavailable", e);
+        }
+    });
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SHA256_BYTES]);
+
+    private FocHashUtil() {}
+
+    /** Hashes input into out[off..off+32). Allocation-free once the calling thread is warm. */
+    static void sha256Into(byte[] input, int inOff, int inLen, byte[] out, int off) {
+        MessageDigest md = SHA256.get();
+        md.update(input, inOff, inLen);
+        try {
+            md.digest(out, off, SHA256_BYTES);
+        } catch (DigestException e) {
+            md.reset();
+            throw new IllegalArgumentException("FOC: hash output buffer too small", e);
+        }
+    }
+
+    static void sha256Into(byte[] input, byte[] out, int off) {
+        sha256Into(input, 0, input.length, out, off);
+    }
+
+    static String sha256Hex(byte[] input) {
+        byte[] hash = SCRATCH.get();
+        sha256Into(input, hash, 0);
+        return toHex(hash, 0, SHA256_BYTES);
+    }
+
+    /** Writes 2 * len lowercase hex chars into out starting at outOff. */
+    static void toHex(byte[] in, int off, int len, char[] out, int outOff) {
+        for (int i = 0; i < len; i++) {
+            int b = in[off + i] & 0xff;
+            out[outOff++] = HEX[b >>> 4];
+            out[outOff++] = HEX[b & 0x0f];
+        }
+    }
+
+    static String toHex(byte[] in, int off, int len) {
+        char[] out = new char[len * 2];
+        toHex(in, off, len, out, 0);
+        return new String(out);
+    }
+
+    /** Writes the 16 hex chars of v into out starting at outOff. */
+    static void toHex(long v, char[] out, int outOff) {
+        for (int i = 15; i >= 0; i--) {
+            out[outOff + i] = HEX[(int) (v & 0x0f)];
+            v >>>= 4;
+        }
+    }
+
+    static FocHash256 sha256(byte[] input) {
+        byte[] hash = SCRATCH.get();
+        sha256Into(input, hash, 0);
+        return FocHash256.of(hash, 0);
+    }
+
+    static FocHash256 contentHash(byte[] content) {
+        return sha256(content);
+    }
+
+    static FocHash256 languageHash(String lang) {
+        return sha256(lang.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String contentHashHex(byte[] content) {
+        return sha256Hex(content);
+    }
+
+    static String topicHashHex(String topic) {
+        return sha256Hex(topic.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String languageIdHash(String lang) {
+        return sha256Hex(lang.getBytes(StandardCharsets.UTF_8));
+    }
+}
+
+// ─── Hash benchmark ──────────────────────────────────────────────────────────
+
+/**
+ * Multi-threaded submit throughput check: runs the same number of submits per thread at
+ * 1, 2, 4 .. N threads and prints ops/s, so scaling with cores is visible at a glance.
+ * Usage: FocHashBenchmark [maxThreads] [opsPerThread]
+ */
+final class FocHashBenchmark {
+    private FocHashBenchmark() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        byte[] content = new byte[FOCConfig.FOC_MAX_SNIPPET_BYTES / 2];
+        new Random(42).nextBytes(content);
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            runHashOnly(threads, opsPerThread, content);
+            runSubmit(threads, opsPerThread, content);
+        }
+    }
+
+    private static void runHashOnly(int threads, int opsPerThread, byte[] content) throws InterruptedException {
+        long elapsed = runThreads(threads, t -> {
+            byte[] out = new byte[FocHashUtil.SHA256_BYTES];
+            for (int i = 0; i < opsPerThread; i++) FocHashUtil.sha256Into(content, out, 0);
+        });
+        report("sha256Into", threads, (long) threads * opsPerThread, elapsed);
+    }
+
+    private static void runSubmit(int threads, int opsPerThread, byte[] content) throws InterruptedException {
+        FrenOfClaw engine = new FrenOfClaw();
+        int perAuthor = FOCConfig.FOC_MAX_SNIPPETS_PER_AUTHOR;
+        long elapsed = runThreads(threads, t -> {
+            for (int i = 0; i < opsPerThread; i++) {
+                engine.submitSnippet("0xBench" + t + "_" + (i / perAuthor), content, "solidity", null);
+            }
+        });
+        report("submitSnippet", threads, (long) threads * opsPerThread, elapsed);
+    }
+
+    private static long runThreads(int threads, IntConsumer body) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                body.accept(id);
+            }, "foc-bench-" + t);
+            workers[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) w.join();
+        return System.nanoTime() - t0;
+    }
+
+    private static void report(String what, int threads, long ops, long elapsedNanos) {
+        double opsPerSec = ops * 1e9 / elapsedNanos;
+        System.out.printf("%-14s threads=%-3d ops=%-10d %,.0f ops/s%n", what, threads, ops, opsPerSec);
+    }
+}
+
+// ─── Journal ─────────────────────────────────────────────────────────────────
+
+/** When journal appends are forced to stable storage. */
+enum FocFsyncPolicy {
+    /** Never force while running; the OS page cache keeps data across process crashes but not power loss. */
+    NONE,
+    /** A background flusher forces every flush interval; appends never wait. */
+    INTERVAL,
+    /**
+     * Group commit: an append returns once a force that started after its write has completed.
+     * One force covers every append that is waiting at that moment.
+     */
+    GROUP
+}
+
+/**
+ * Write-ahead journal of engine events on memory-mapped segment files (journal-NNNNNNNNNN.seg).
+ * A record is [int length][int crc32c][payload]. Space and the header are claimed under a tiny
+ * lock, with length written negated ("pending"); the payload is then copied without the lock and
+ * the length is flipped positive with a release store. Because every claimed record has a header
+ * before any later one is claimed, recovery can step over a torn pending record and still reach
+ * every acknowledged record after it. Only the tail segment is mapped at open; older ones are
+ * mapped when read, at most FOC_JOURNAL_MAPPED_SEGMENTS at a time, and segments wholly below
+ * the oldest retained snapshot are deleted by retireBefore. Under GROUP, a record whose force fails (or that the journal
+ * closes under) is marked aborted before the append throws, and every scan skips it; after a
+ * failed force the journal refuses further appends.
+ */
+final class FocJournal implements Closeable {
+    static final int HEADER_BYTES = 8;
+    static final int MAX_RECORD_BYTES = 1 << 16;
+    private static final int SKIP_TO_NEXT_SEGMENT = Integer.MIN_VALUE;
+    /** Header of an aborted record of length len is ABORTED - len, below any pending -len. */
+    private static final int ABORTED = -(1 << 24);
+    private static final VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEADER_BYTES + MAX_RECORD_BYTES));
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final FocFsyncPolicy policy;
+    private final long flushIntervalNanos;
+    private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    /** Position of the first record seen in each block of 1 << FocEventLog.SEGMENT_SHIFT seqs, for readSeqs. */
+    private final ConcurrentSkipListMap<Long, Long> seqBlocks = new ConcurrentSkipListMap<>();
+    private long lastIndexedBlock = -1;
+    /** Lowest and highest segment files on disk; records below firstSegment were retired. */
+    private volatile long firstSegment;
+    private volatile long lastSegment;
+
+    private final Object appendLock = new Object();
+    private long position;
+    private volatile long appendPosition;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushWanted = flushLock.newCondition();
+    private final Condition flushDone = flushLock.newCondition();
+    private boolean flushRequested;
+    private volatile long lowestDirtySegment;
+    /** Every record below this was fully written before a force that completed; readers under GROUP stop here. */
+    private volatile long durablePosition;
+    /** Set by close once its final force is done; appends still waiting then are aborted. */
+    private boolean drained;
+    private volatile IOException flushFailure;
+    private volatile boolean closed;
+    private final Thread flusher;
+
+    private FocJournal(Path dir, int segmentBytes, FocFsyncPolicy policy, long flushIntervalMicros) throws IOException {
+        if (segmentBytes < 4 * (HEADER_BYTES + MAX_RECORD_BYTES) || (segmentBytes & 7) != 0) {
+            throw new IllegalArgumentException("FOC: journal segment size must be a multiple of 8 and at least 4 records");
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.policy = policy;
+        this.flushIntervalNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(1, flushIntervalMicros));
+        Files.createDirectories(dir);
+        long first = -1;
+        long last = -1;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "journal-*.seg")) {
+            for (Path p : ds) {
+                long i = Long.parseLong(p.getFileName().toString().substring(8, 18));
+                first = first < 0 ? i : Math.min(first, i);
+                last = Math.max(last, i);
+            }
+        }
+        this.firstSegment = Math.max(0, first);
+        this.lastSegment = last;
+        // Records never straddle segments, so the end of data is found by scanning the last one only.
+        this.position = scan(Math.max(0, last) * segmentBytes, Long.MAX_VALUE, true, null);
+        this.appendPosition = position;
+        this.durablePosition = position;
+        this.lowestDirtySegment = position / segmentBytes;
+        if (policy == FocFsyncPolicy.NONE) {
+            this.flusher = null;
+        } else {
+            this.flusher = new Thread(this::flushLoop, "foc-journal-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        }
+    }
+
+    static FocJournal open(Path dir, FocFsyncPolicy policy) throws IOException {
+        return new FocJournal(dir, FOCConfig.FOC_JOURNAL_SEGMENT_BYTES, policy, FOCConfig.FOC_JOURNAL_FLUSH_INTERVAL_MICROS);
+    }
+
+    static FocJournal open(Path dir, int segmentBytes, FocFsyncPolicy policy, long flushIntervalMicros) throws IOException {
+        return new FocJournal(dir, segmentBytes, policy, flushIntervalMicros);
+    }
+
+    /**
+     * Stamps event with nextSeq and journals it, returning the position just past it; under GROUP,
+     * also waits until it is durable, and if it cannot become durable aborts it before throwing, so
+     * a caller that rolls back on the exception agrees with what replay will see. The seq is drawn
+     * and the record encoded under the append lock, so sequence order is journal order and replay
+     * sees seqs ascending.
+     */
+    long append(FocEvent event, LongSupplier nextSeq) {
+        if (closed) throw new FocJournalException("closed", null);
+        IOException failed = flushFailure;
+        if (failed != null) throw new FocJournalException("fsync failed", failed);
+        ByteBuffer buf = SCRATCH.get();
+        MappedByteBuffer seg;
+        int off;
+        int len;
+        long start;
+        synchronized (appendLock) {
+            event.stampSeq(nextSeq.getAsLong());
+            buf.clear().position(HEADER_BYTES);
+            try {
+                FocEventCodec.encode(event, buf);
+            } catch (BufferOverflowException e) {
+                throw new FocJournalException("record too large", e);
+            }
+            len = buf.position() - HEADER_BYTES;
+            start = reserve(align(HEADER_BYTES + len));
+            indexSeq(event.getSeq(), start);
+            seg = segment(start / segmentBytes);
+            off = (int) (start % segmentBytes);
+            INT_VIEW.setRelease(seg, off, -len);
+        }
+        CRC32C crc = CRC.get();
+        crc.reset();
+        crc.update(buf.array(), HEADER_BYTES, len);
+        seg.putInt(off + 4, (int) crc.getValue());
+        seg.put(off + HEADER_BYTES, buf.array(), HEADER_BYTES, len);
+        INT_VIEW.setRelease(seg, off, len);
+        long end = start + align(HEADER_BYTES + len);
+        if (policy == FocFsyncPolicy.GROUP) {
+            try {
+                awaitDurable(end);
+            } catch (FocJournalException e) {
+                abort(seg, off, len);
+                throw e;
+            }
+        }
+        return end;
+    }
+
+    /** Marks a committed but not durable record aborted, and tries to force just its header. */
+    private static void abort(MappedByteBuffer seg, int off, int len) {
+        INT_VIEW.setRelease(seg, off, ABORTED - len);
+        try {
+            seg.force(off, HEADER_BYTES);
+        } catch (UncheckedIOException e) {
+            // The force is already failing; replay sees whichever header reached the disk.
+        }
+    }
+
+    /** Notes where a new block of seqs starts; appends and replay both run in journal order. */
+    private void indexSeq(long seq, long pos) {
+        long block = seq >>> FocEventLog.SEGMENT_SHIFT;
+        if (block > lastIndexedBlock) {
+            seqBlocks.put(block, pos);
+            lastIndexedBlock = block;
+        }
+    }
+
+    /** Records start 8-byte aligned so headers can be read and written with acquire/release int access. */
+    static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    /** Claims size bytes in one segment, rolling to the next segment if they do not fit; holds appendLock. */
+    private long reserve(int size) {
+        long seg = position / segmentBytes;
+        int off = (int) (position % segmentBytes);
+        if (off + size > segmentBytes) {
+            if (off + HEADER_BYTES <= segmentBytes) INT_VIEW.setRelease(segment(seg), off, SKIP_TO_NEXT_SEGMENT);
+            seg++;
+            position = seg * segmentBytes;
+        }
+        if (seg > lastSegment) {
+            try {
+                segments.put(seg, map(seg));
+            } catch (IOException e) {
+                throw new FocJournalException("segment " + seg + " unavailable", e);
+            }
+            lastSegment = seg;
+        }
+        long start = position;
+        position += size;
+        appendPosition = position;
+        return start;
+    }
+
+    /** Waits until a completed force covers [.., end); one force covers every append waiting at that moment. */
+    private void awaitDurable(long end) {
+        flushLock.lock();
+        try {
+            while (durablePosition < end) {
+                if (flushFailure != null) throw new FocJournalException("fsync failed", flushFailure);
+                if (drained) throw new FocJournalException("closed", null);
+                flushRequested = true;
+                flushWanted.signal();
+                flushDone.awaitUninterruptibly();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            flushLock.lock();
+            try {
+                long waitNanos = flushIntervalNanos;
+                while (!closed && waitNanos > 0 && !(policy == FocFsyncPolicy.GROUP && flushRequested)) {
+                    waitNanos = flushWanted.awaitNanos(waitNanos);
+                }
+                if (closed || (policy == FocFsyncPolicy.GROUP && !flushRequested)) continue;
+                flushRequested = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                flushLock.unlock();
+            }
+            force();
+        }
+    }
+
+    /** Forces what is written so far and, unless it fails, moves durablePosition past every record fully written before it. */
+    private IOException force() {
+        long upTo = writtenUpTo(durablePosition);
+        IOException failed = null;
+        try {
+            forceDirty();
+        } catch (IOException | UncheckedIOException e) {
+            failed = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+        }
+        flushLock.lock();
+        try {
+            if (failed != null) {
+                if (flushFailure == null) flushFailure = failed;
+            } else if (flushFailure == null) {
+                durablePosition = upTo;
+            }
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        return failed;
+    }
+
+    /** Steps over fully written and aborted records from pos; stops at the first one still pending. */
+    private long writtenUpTo(long pos) {
+        long end = appendPosition;
+        while (pos < end) {
+            long segIndex = pos / segmentBytes;
+            int off = (int) (pos % segmentBytes);
+            int len = off + HEADER_BYTES > segmentBytes ? SKIP_TO_NEXT_SEGMENT : (int) INT_VIEW.getAcquire(segment(segIndex), off);
+            if (len == SKIP_TO_NEXT_SEGMENT) {
+                pos = (segIndex + 1) * segmentBytes;
+            } else if (len > 0) {
+                pos += align(HEADER_BYTES + len);
+            } else if (len <= ABORTED) {
+                pos += align(HEADER_BYTES + ABORTED - len);
+            } else {
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    /** Forces every segment written since the previous force; msync only writes back dirty pages. */
+    private void forceDirty() throws IOException {
+        long last = appendPosition / segmentBytes;
+        for (long i = lowestDirtySegment; i <= last; i++) {
+            MappedByteBuffer seg = segments.get(i);
+            if (seg != null) seg.force();
+        }
+        lowestDirtySegment = last;
+    }
+
+    /**
+     * Delivers up to max journaled events with fromSeq <= seq < toSeq in seq order and returns the
+     * seq to resume from: one past the last delivered, or toSeq once the range is exhausted.
+     * Events journaled before this journal indexed their block (ahead of the snapshot a restart
+     * loaded, or in a retired segment) are not available and are skipped. Safe against a live
+     * writer: it stops at the first record still being written and, under GROUP, at the durable
+     * position, so it never returns a record that may yet abort.
+     */
+    long readSeqs(long fromSeq, long toSeq, int max, Consumer<FocEvent> sink) {
+        if (max <= 0 || fromSeq >= toSeq) return fromSeq;
+        Map.Entry<Long, Long> at = seqBlocks.floorEntry(fromSeq >>> FocEventLog.SEGMENT_SHIFT);
+        if (at == null) at = seqBlocks.firstEntry();
+        if (at == null) return toSeq;
+        long[] next = {toSeq};
+        int[] left = {max};
+        scan(Math.max(at.getValue(), firstPosition()), policy == FocFsyncPolicy.GROUP ? durablePosition : Long.MAX_VALUE, false, ev -> {
+            long seq = ev.getSeq();
+            if (seq < fromSeq) return true;
+            if (seq >= toSeq) return false;
+            sink.accept(ev);
+            if (--left[0] > 0) return true;
+            next[0] = seq + 1;
+            return false;
+        });
+        return next[0];
+    }
+
+    /** Decodes every record from fromPos on, stepping over torn or pending ones; only for a journal no one is appending to. */
+    long replay(long fromPos, Consumer<FocEvent> sink) {
+        return scan(fromPos, Long.MAX_VALUE, true, ev -> {
+            sink.accept(ev);
+            return true;
+        });
+    }
+
+    /** Decodes records from fromPos until limit, the end of data or sink returning false; returns the position reached. */
+    private long scan(long fromPos, long limit, boolean skipPending, Predicate<FocEvent> sink) {
+        long pos = fromPos;
+        CRC32C crc = new CRC32C();
+        while (pos < limit) {
+            long segIndex = pos / segmentBytes;
+            MappedByteBuffer seg = segment(segIndex);
+            if (seg == null) return pos;
+            int off = (int) (pos % segmentBytes);
+            int len = off + HEADER_BYTES > segmentBytes ? SKIP_TO_NEXT_SEGMENT : (int) INT_VIEW.getAcquire(seg, off);
+            if (len == 0) {
+                if (!skipPending) return pos;
+                // A pending reservation can sit right before a segment roll; only the end of data is all zero.
+                if (segIndex < lastSegment) {
+                    pos = (segIndex + 1) * segmentBytes;
+                    continue;
+                }
+                return pos;
+            }
+            if (len == SKIP_TO_NEXT_SEGMENT) {
+                pos = (segIndex + 1) * segmentBytes;
+                continue;
+            }
+            if (len <= ABORTED && ABORTED - len <= MAX_RECORD_BYTES) {
+                pos += align(HEADER_BYTES + ABORTED - len);
+                continue;
+            }
+            if (len < 0 || len > MAX_RECORD_BYTES || off + HEADER_BYTES + len > segmentBytes) {
+                if (!skipPending || len >= 0) return pos;
+                pos += align(HEADER_BYTES - len);
+                continue;
+            }
+            ByteBuffer payload = seg.duplicate();
+            payload.limit(off + HEADER_BYTES + len).position(off + HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != seg.getInt(off + 4)) {
+                if (!skipPending) return pos;
+                pos += align(HEADER_BYTES + len);
+                continue;
+            }
+            long at = pos;
+            pos += align(HEADER_BYTES + len);
+            if (sink != null) {
+                FocEvent ev = FocEventCodec.decode(payload);
+                if (skipPending) indexSeq(ev.getSeq(), at);
+                if (!sink.test(ev)) return pos;
+            }
+        }
+        return pos;
+    }
+
+    long position() {
+        return appendPosition;
+    }
+
+    /** Forces every mapped segment, whatever the policy; a snapshot calls this before it records position(). */
+    void sync() throws IOException {
+        try {
+            for (MappedByteBuffer seg : segments.values()) seg.force();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Position of the oldest record still on disk; replay must not start below it. */
+    long firstPosition() {
+        return firstSegment * segmentBytes;
+    }
+
+    /**
+     * Deletes every segment that lies wholly below position, which must be covered by a snapshot.
+     * The segment being appended to is never retired.
+     */
+    synchronized void retireBefore(long position) throws IOException {
+        long below = Math.min(position, appendPosition) / segmentBytes;
+        for (long i = firstSegment; i < below; i++) {
+            firstSegment = i + 1;
+            segments.remove(i);
+            Files.deleteIfExists(segmentPath(i));
+        }
+        // Keep the block that straddles the new first position; readSeqs starts it at firstPosition().
+        for (Map.Entry<Long, Long> e; (e = seqBlocks.firstEntry()) != null; ) {
+            Map.Entry<Long, Long> next = seqBlocks.higherEntry(e.getKey());
+            if (next == null || next.getValue() > firstPosition()) break;
+            seqBlocks.remove(e.getKey());
+        }
+    }
+
+    /**
+     * The mapping of segment index, mapping it on first read; null if it is not on disk. Mapping a
+     * cold segment unmaps (drops) another one that is already forced, so old segments never pile up.
+     */
+    private MappedByteBuffer segment(long index) {
+        MappedByteBuffer seg = segments.get(index);
+        if (seg != null || index < firstSegment || index > lastSegment) return seg;
+        seg = segments.computeIfAbsent(index, i -> {
+            try {
+                return map(i);
+            } catch (IOException e) {
+                throw new FocJournalException("segment " + i + " unavailable", e);
+            }
+        });
+        if (segments.size() > FOCConfig.FOC_JOURNAL_MAPPED_SEGMENTS) {
+            long evictable = policy == FocFsyncPolicy.NONE ? lastSegment : Math.min(lastSegment, lowestDirtySegment);
+            for (Long i : segments.keySet()) {
+                if (i != index && i < evictable && segments.remove(i) != null) break;
+            }
+        }
+        return seg;
+    }
+
+    Path directory() {
+        return dir;
+    }
+
+    private Path segmentPath(long index) {
+        return dir.resolve(String.format("journal-%010d.seg", index));
+    }
+
+    private MappedByteBuffer map(long index) throws IOException {
+        Path p = segmentPath(index);
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            if (size != 0 && size != segmentBytes) throw new IOException("FOC: " + p + " has size " + size + ", expected " + segmentBytes);
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (flusher != null) {
+            flushLock.lock();
+            try {
+                flushWanted.signalAll();
+                flushDone.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lowestDirtySegment = 0;
+        IOException failed = force();
+        flushLock.lock();
+        try {
+            drained = true;
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        if (failed != null) throw failed;
+    }
+}
+
+/**
+ * Versioned binary encoding of events, used by the journal and usable by replication and export.
+ * A record is [version][type][seq + 1][timestamp] followed by the event's fields. Integers are
+ * LEB128 varints (zigzag for signed values), strings are [length + 1] then UTF-8 (0 = null), and
+ * hashes are 32 raw bytes. Encoding writes straight into the buffer, and decoding allocates only
+ * the event and its field values.
+ */
+final class FocEventCodec {
+    static final byte VERSION = 0x41;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private FocEventCodec() {}
+
+    static void encode(FocEvent e, ByteBuffer out) {
+        FocEventType type = e.getType();
+        out.put(VERSION).put(type.code);
+        putVarLong(out, e.getSeq() + 1);
+        putVarLong(out, e.getTimestamp());
+        switch (type) {
+            case SNIPPET_SUBMITTED: {
+                FocSnippetSubmittedEvent ev = (FocSnippetSubmittedEvent) e;
+                putVarLong(out, ev.snippetId);
+                putString(out, ev.author);
+                putHash(out, ev.contentHash);
+                putHash(out, ev.languageId);
+                putVarLong(out, ev.createdAt);
+                break;
+            }
+            case SNIPPET_BATCH_SUBMITTED: {
+                FocSnippetBatchSubmittedEvent ev = (FocSnippetBatchSubmittedEvent) e;
+                putVarLong(out, ev.firstSnippetId);
+                putString(out, ev.author);
+                putHash(out, ev.languageId);
+                putVarLong(out, ev.createdAt);
+                putVarLong(out, ev.contentHashes.length);
+                for (FocHash256 h : ev.contentHashes) putHash(out, h);
+                break;
+            }
+            case SNIPPET_UPDATED: {
+                FocSnippetUpdatedEvent ev = (FocSnippetUpdatedEvent) e;
+                putVarLong(out, ev.snippetId);
+                putString(out, ev.author);
+                putHash(out, ev.newContentHash);
+                putVarLong(out, ev.updatedAt);
+                break;
+            }
+            case SNIPPET_DELETED: {
+                FocSnippetDeletedEvent ev = (FocSnippetDeletedEvent) e;
+                putVarLong(out, ev.snippetId);
+                putString(out, ev.author);
+                break;
+            }
+            case SNIPPET_TIPPED: {
+                FocSnippetTippedEvent ev = (FocSnippetTippedEvent) e;
+                putVarLong(out, ev.snippetId);
+                putString(out, ev.tipper);
+                if (ev.wide == null) {
+                    putWei(out, ev.amountWei);
+                    putWei(out, ev.authorShare);
+                    putWei(out, ev.treasuryFee);
+                } else {
+                    for (BigInteger v : ev.wide) putWei(out, v);
+                }
+                break;
+            }
+            case SNIPPET_BATCH_TIPPED: {
+                FocSnippetBatchTippedEvent ev = (FocSnippetBatchTippedEvent) e;
+                putString(out, ev.tipper);
+                putVarLong(out, ev.snippetIds.length);
+                for (int i = 0; i < ev.snippetIds.length; i++) {
+                    putVarLong(out, ev.snippetIds[i]);
+                    putWei(out, ev.amountsWei[i]);
+                }
+                break;
+            }
+            case TIPS_WITHDRAWN: {
+                FocTipsWithdrawnEvent ev = (FocTipsWithdrawnEvent) e;
+                putString(out, ev.author);
+                putWei(out, ev.amountWei);
+                break;
+            }
+            case HINT_REQUESTED: {
+                FocHintRequestedEvent ev = (FocHintRequestedEvent) e;
+                putVarLong(out, ev.hintId);
+                putString(out, ev.requester);
+                putHash(out, ev.topicHash);
+                putVarLong(out, ev.snippetId);
+                putVarLong(out, ev.createdAt);
+                break;
+            }
+            case HINT_FULFILLED: {
+                FocHintFulfilledEvent ev = (FocHintFulfilledEvent) e;
+                putVarLong(out, ev.hintId);
+                putString(out, ev.fulfiller);
+                putVarLong(out, ev.fulfilledAt);
+                break;
+            }
+            case HINT_EXPIRED: {
+                FocHintExpiredEvent ev = (FocHintExpiredEvent) e;
+                putVarLong(out, ev.hintId);
+                putString(out, ev.requester);
+                putVarLong(out, ev.expiredAt);
+                break;
+            }
+            case REPUTATION_UPVOTE: {
+                FocReputationUpvoteEvent ev = (FocReputationUpvoteEvent) e;
+                putVarLong(out, ev.snippetId);
+                putString(out, ev.voter);
+                putString(out, ev.author);
+                putVarLong(out, zigzag(ev.newScore));
+                putVarLong(out, zigzag(ev.scoreDelta));
+                break;
+            }
+            case REPUTATION_DOWNVOTE: {
+                FocReputationDownvoteEvent ev = (FocReputationDownvoteEvent) e;
+                putVarLong(out, ev.snippetId);
+                putString(out, ev.voter);
+                putString(out, ev.author);
+                putVarLong(out, zigzag(ev.newScore));
+                putVarLong(out, zigzag(ev.scoreDelta));
+                break;
+            }
+            case PAUSE_TOGGLED:
+                out.put((byte) (((FocPauseToggledEvent) e).paused ? 1 : 0));
+                break;
+            case DEDUPE_TOGGLED:
+                out.put((byte) (((FocDedupeModeToggledEvent) e).enabled ? 1 : 0));
+                break;
+            case HINT_TTL_CHANGED:
+                putVarLong(out, ((FocHintTtlChangedEvent) e).ttlMillis);
+                break;
+            case HINT_PRIORITY_CHANGED:
+                putVarLong(out, ((FocHintPriorityChangedEvent) e).priority.ordinal());
+                break;
+            case LANGUAGE_REGISTERED:
+                putHash(out, ((FocLanguageRegisteredEvent) e).languageId);
+                break;
+            case BADGE_AWARDED: {
+                FocBadgeEvent ev = (FocBadgeEvent) e;
+                putString(out, ev.account);
+                putVarLong(out, ev.badgeSlot);
+                putVarLong(out, ev.atBlockMs);
+                break;
+            }
+            case SNIPPET_TAGGED: {
+                FocSnippetTaggedEvent ev = (FocSnippetTaggedEvent) e;
+                putVarLong(out, ev.snippetId);
+                putString(out, ev.tagIdHex);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("FOC: no encoding for " + type);
+        }
+    }
+
+    static FocEvent decode(ByteBuffer in) {
+        byte version = in.get();
+        if (version != VERSION) throw new FocJournalException("unknown codec version " + version, null);
+        byte code = in.get();
+        FocEventType type = FocEventType.ofCode(code);
+        if (type == null) throw new FocJournalException("unknown record type " + code, null);
+        long seq = getVarLong(in) - 1;
+        long timestamp = getVarLong(in);
+        FocEvent e = decodeBody(type, in);
+        e.restore(seq, timestamp);
+        return e;
+    }
+
+    private static FocEvent decodeBody(FocEventType type, ByteBuffer in) {
+        switch (type) {
+            case SNIPPET_SUBMITTED:
+                return new FocSnippetSubmittedEvent(getVarLong(in), getString(in), getHash(in), getHash(in), getVarLong(in));
+            case SNIPPET_BATCH_SUBMITTED: {
+                long first = getVarLong(in);
+                String author = getString(in);
+                FocHash256 languageId = getHash(in);
+                long createdAt = getVarLong(in);
+                FocHash256[] hashes = new FocHash256[(int) getVarLong(in)];
+                for (int i = 0; i < hashes.length; i++) hashes[i] = getHash(in);
+                return new FocSnippetBatchSubmittedEvent(first, author, languageId, createdAt, hashes);
+            }
+            case SNIPPET_UPDATED:
+                return new FocSnippetUpdatedEvent(getVarLong(in), getString(in), getHash(in), getVarLong(in));
+            case SNIPPET_DELETED:
+                return new FocSnippetDeletedEvent(getVarLong(in), getString(in));
+            case SNIPPET_TIPPED:
+                return new FocSnippetTippedEvent(getVarLong(in), getString(in), getWei(in), getWei(in), getWei(in));
+            case SNIPPET_BATCH_TIPPED: {
+                String tipper = getString(in);
+                int n = (int) getVarLong(in);
+                long[] ids = new long[n];
+                BigInteger[] amounts = new BigInteger[n];
+                for (int i = 0; i < n; i++) {
+                    ids[i] = getVarLong(in);
+                    amounts[i] = getWei(in);
+                }
+                return new FocSnippetBatchTippedEvent(tipper, ids, amounts);
+            }
+            case TIPS_WITHDRAWN:
+                return new FocTipsWithdrawnEvent(getString(in), getWei(in));
+            case HINT_REQUESTED:
+                return new FocHintRequestedEvent(getVarLong(in), getString(in), getHash(in), getVarLong(in), getVarLong(in));
+            case HINT_FULFILLED:
+                return new FocHintFulfilledEvent(getVarLong(in), getString(in), getVarLong(in));
+            case HINT_EXPIRED:
+                return new FocHintExpiredEvent(getVarLong(in), getString(in), getVarLong(in));
+            case REPUTATION_UPVOTE:
+                return new FocReputationUpvoteEvent(getVarLong(in), getString(in), getString(in), unzigzag(getVarLong(in)), unzigzag(getVarLong(in)));
+            case REPUTATION_DOWNVOTE:
+                return new FocReputationDownvoteEvent(getVarLong(in), getString(in), getString(in), unzigzag(getVarLong(in)), unzigzag(getVarLong(in)));
+            case PAUSE_TOGGLED:
+                return new FocPauseToggledEvent(in.get() != 0);
+            case DEDUPE_TOGGLED:
+                return new FocDedupeModeToggledEvent(in.get() != 0);
+            case HINT_TTL_CHANGED:
+                return new FocHintTtlChangedEvent(getVarLong(in));
+            case HINT_PRIORITY_CHANGED:
+                return new FocHintPriorityChangedEvent(FocHintPriority.ofOrdinal((int) getVarLong(in)));
+            case LANGUAGE_REGISTERED:
+                return new FocLanguageRegisteredEvent(getHash(in));
+            case BADGE_AWARDED:
+                return new FocBadgeEvent(getString(in), (int) getVarLong(in), getVarLong(in));
+            case SNIPPET_TAGGED:
+                return new FocSnippetTaggedEvent(getVarLong(in), getString(in));
+            default:
+                throw new FocJournalException("no decoding for " + type, null);
+        }
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void putVarLong(ByteBuffer out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new FocJournalException("varint too long", null);
+    }
+
+    /** Writes UTF-8 char by char, so no byte[] is made for the string. */
+    static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.put((byte) 0);
+            return;
+        }
+        int n = s.length();
+        long bytes = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) bytes++;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        putVarLong(out, bytes + 1);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+                        .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+            } else {
+                // A lone surrogate is written as U+FFFD, as String.getBytes would.
+                if (Character.isSurrogate(c)) c = '\uFFFD';
+                out.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    static String getString(ByteBuffer in) {
+        long header = getVarLong(in);
+        if (header == 0) return null;
+        int len = (int) (header - 1);
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        } else {
+            byte[] b = SCRATCH.get();
+            if (b.length < len) SCRATCH.set(b = new byte[Math.max(len, b.length << 1)]);
+            in.get(in.position(), b, 0, len);
+            s = new String(b, 0, len, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + len);
+        return s;
+    }
+
+    static void putHash(ByteBuffer out, FocHash256 h) {
+        out.putLong(h.w0).putLong(h.w1).putLong(h.w2).putLong(h.w3);
+    }
+
+    static FocHash256 getHash(ByteBuffer in) {
+        return new FocHash256(in.getLong(), in.getLong(), in.getLong(), in.getLong());
+    }
+
+    /** [0][zigzag varint] while the amount fits a long, else [byte count][two's-complement bytes]. */
+    static void putWei(ByteBuffer out, BigInteger v) {
+        if (v.bitLength() < 64) {
+            out.put((byte) 0);
+            putVarLong(out, zigzag(v.longValue()));
+            return;
+        }
+        byte[] b = v.toByteArray();
+        putVarLong(out, b.length);
+        out.put(b);
+    }
+
+    /** The same encoding as putWei(BigInteger.valueOf(v)), without the BigInteger. */
+    static void putWei(ByteBuffer out, long v) {
+        out.put((byte) 0);
+        putVarLong(out, zigzag(v));
+    }
+
+    static BigInteger getWei(ByteBuffer in) {
+        int len = (int) getVarLong(in);
+        if (len == 0) return BigInteger.valueOf(unzigzag(getVarLong(in)));
+        byte[] b = new byte[len];
+        in.get(b);
+        return new BigInteger(b);
+    }
+}
+
+// ─── Journal check ───────────────────────────────────────────────────────────
+
+/**
+ * Runnable check of the event codec and journal recovery: every FocEventType survives encode and
+ * decode byte for byte, a journal with a corrupt, a torn and a truncated record replays exactly
+ * the intact ones, and an engine replayed from its journal matches the one that wrote it. Throws
+ * on the first mismatch. Usage: FocJournalCheck
+ */
+final class FocJournalCheck {
+    /** The smallest segment a journal accepts. */
+    private static final int SEGMENT_BYTES = 4 * (FocJournal.HEADER_BYTES + FocJournal.MAX_RECORD_BYTES);
+
+    private FocJournalCheck() {}
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("foc-journal-check");
+        checkRoundTrip();
+        System.out.println("codec round trip: " + FocEventType.values().length + " event types");
+        int replayed = checkRecovery(Files.createDirectory(dir.resolve("recovery")));
+        System.out.println("damaged journal: " + replayed + " intact records replayed");
+        long events = checkReplay(Files.createDirectory(dir.resolve("replay")));
+        System.out.println("engine replay: " + events + " events, state matches");
+    }
+
+    /** One event of type; the switch has no default, so a new type does not compile without a sample. */
+    static FocEvent sample(FocEventType type) {
+        FocHash256 h = FocHashUtil.sha256("sample".getBytes(StandardCharsets.UTF_8));
+        // Non-ASCII, including a surrogate pair, to cover the string encoding.
+        String who = "0xSämple✓𝄞";
+        return switch (type) {
+            case SNIPPET_SUBMITTED -> new FocSnippetSubmittedEvent(5, who, h, h, 1_700_000_000_000L);
+            case SNIPPET_UPDATED -> new FocSnippetUpdatedEvent(1, who, h, 3);
+            case SNIPPET_DELETED -> new FocSnippetDeletedEvent(1, who);
+            case SNIPPET_TIPPED -> new FocSnippetTippedEvent(2, who, BigInteger.TEN.pow(30), BigInteger.valueOf(99), BigInteger.ONE);
+            case TIPS_WITHDRAWN -> new FocTipsWithdrawnEvent(who, BigInteger.valueOf(Long.MAX_VALUE));
+            case HINT_REQUESTED -> new FocHintRequestedEvent(1, who, h, 0, 7);
+            case HINT_FULFILLED -> new FocHintFulfilledEvent(1, who, 8);
+            case REPUTATION_UPVOTE -> new FocReputationUpvoteEvent(1, who, "0xAuthor", 5, 1);
+            case REPUTATION_DOWNVOTE -> new FocReputationDownvoteEvent(1, who, "0xAuthor", 0, -1);
+            case PAUSE_TOGGLED -> new FocPauseToggledEvent(true);
+            case DEDUPE_TOGGLED -> new FocDedupeModeToggledEvent(false);
+            case LANGUAGE_REGISTERED -> new FocLanguageRegisteredEvent(h);
+            case BADGE_AWARDED -> new FocBadgeEvent(who, 3, 11);
+            case SNIPPET_TAGGED -> new FocSnippetTaggedEvent(4, h.toHex());
+            case HINT_EXPIRED -> new FocHintExpiredEvent(2, who, 9);
+            case SNIPPET_BATCH_SUBMITTED -> new FocSnippetBatchSubmittedEvent(9, who, h, 42, new FocHash256[] {h, h});
+            case SNIPPET_BATCH_TIPPED -> new FocSnippetBatchTippedEvent(who, new long[] {1, 2}, new BigInteger[] {BigInteger.TEN, BigInteger.TWO.pow(80)});
+            case HINT_TTL_CHANGED -> new FocHintTtlChangedEvent(60_000);
+            case HINT_PRIORITY_CHANGED -> new FocHintPriorityChangedEvent(FocHintPriority.SNIPPET_FIRST);
+        };
+    }
+
+    /** Encodes each sample into a heap and a direct buffer, decodes it, and re-encodes the result. */
+    private static void checkRoundTrip() {
+        ByteBuffer again = ByteBuffer.allocate(FocJournal.MAX_RECORD_BYTES);
+        ByteBuffer[] buffers = {ByteBuffer.allocate(FocJournal.MAX_RECORD_BYTES), ByteBuffer.allocateDirect(FocJournal.MAX_RECORD_BYTES)};
+        for (FocEventType type : FocEventType.values()) {
+            FocEvent e = sample(type);
+            // Spread seqs over several varint widths.
+            e.stampSeq((long) type.ordinal() << (3 * type.ordinal()));
+            for (ByteBuffer buf : buffers) {
+                buf.clear();
+                FocEventCodec.encode(e, buf);
+                buf.flip();
+                FocEvent d = FocEventCodec.decode(buf);
+                require(!buf.hasRemaining(), type + " left bytes undecoded");
+                require(d.getType() == type && d.getSeq() == e.getSeq() && d.getTimestamp() == e.getTimestamp(), type + " header changed");
+                again.clear();
+                FocEventCodec.encode(d, again);
+                again.flip();
+                buf.rewind();
+                require(again.equals(buf), type + " re-encodes differently");
+            }
+        }
+    }
+
+    /**
+     * Journals one record of each type in turn, then damages three: one payload byte flipped, one
+     * header put back to pending as if its writer died mid-copy, and the last three zeroed as if
+     * never written. Replay must yield every other record, in order. Returns how many it yielded.
+     */
+    private static int checkRecovery(Path dir) throws IOException {
+        FocEventType[] types = FocEventType.values();
+        int n = 4 * types.length;
+        long[] ends = new long[n];
+        long[] nextSeq = {0};
+        try (FocJournal j = FocJournal.open(dir, SEGMENT_BYTES, FocFsyncPolicy.NONE, 0)) {
+            for (int i = 0; i < n; i++) ends[i] = j.append(sample(types[i % types.length]), () -> nextSeq[0]++);
+        }
+        require(ends[n - 1] < SEGMENT_BYTES, "records spill past the first segment");
+        int corrupt = n / 4;
+        int torn = n / 2;
+        int truncatedFrom = n - 3;
+        Path segment;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "journal-*.seg")) {
+            segment = ds.iterator().next();
+        }
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long at = ends[corrupt - 1] + FocJournal.HEADER_BYTES;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, at);
+            b.put(0, (byte) ~b.get(0));
+            ch.write(b.rewind(), at);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            ch.read(header, ends[torn - 1]);
+            header.putInt(0, -header.getInt(0));
+            ch.write(header.rewind(), ends[torn - 1]);
+            ch.write(ByteBuffer.allocate((int) (ends[n - 1] - ends[truncatedFrom - 1])), ends[truncatedFrom - 1]);
+        }
+        List<FocEvent> replayed = new ArrayList<>();
+        try (FocJournal j = FocJournal.open(dir, SEGMENT_BYTES, FocFsyncPolicy.NONE, 0)) {
+            j.replay(0, replayed::add);
+            require(j.position() == ends[truncatedFrom - 1], "reopened journal appends at " + j.position() + ", not after the last intact record");
+        }
+        int k = 0;
+        for (int i = 0; i < truncatedFrom; i++) {
+            if (i == corrupt || i == torn) continue;
+            require(k < replayed.size(), "replay stopped before record " + i);
+            FocEvent e = replayed.get(k++);
+            require(e.getSeq() == i && e.getType() == types[i % types.length], "record " + i + " replayed as " + e.getType() + " seq " + e.getSeq());
+        }
+        require(k == replayed.size(), "replay yielded " + (replayed.size() - k) + " damaged records");
+        return k;
+    }
+
+    /** Runs a mixed workload on a journaled engine, then replays the journal into a fresh one and compares. */
+    private static long checkReplay(Path dir) throws IOException {
+        String curator = FOCConfig.FOC_CURATOR_ADDR;
+        FrenOfClaw written = new FrenOfClaw();
+        written.attachJournal(FocJournal.open(dir, SEGMENT_BYTES, FocFsyncPolicy.NONE, 0), curator);
+        workload(written);
+        List<String> expected = fingerprint(written);
+        written.getJournal().close();
+        FrenOfClaw replayed = new FrenOfClaw();
+        replayed.attachJournal(FocJournal.open(dir, SEGMENT_BYTES, FocFsyncPolicy.NONE, 0), curator);
+        List<String> actual = fingerprint(replayed);
+        replayed.getJournal().close();
+        for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+            String want = i < expected.size() ? expected.get(i) : "(nothing)";
+            String got = i < actual.size() ? actual.get(i) : "(nothing)";
+            require(want.equals(got), "replayed engine differs: wrote " + want + ", replayed " + got);
+        }
+        return written.getEventCount();
+    }
+
+    /** Touches every event type the engine emits except HINT_EXPIRED, which needs the clock to pass a TTL. */
+    private static void workload(FrenOfClaw e) {
+        String curator = FOCConfig.FOC_CURATOR_ADDR;
+        BigInteger minTip = BigInteger.valueOf(FOCConfig.FOC_MIN_TIP_WEI);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(e.submitSnippet("0xAuthor" + i % 7, ("snippet " + i).getBytes(StandardCharsets.UTF_8), "solidity", null));
+        }
+        List<byte[]> batch = new ArrayList<>();
+        for (int i = 0; i < 32; i++) batch.add(("batched " + i).getBytes(StandardCharsets.UTF_8));
+        ids.addAll(e.submitSnippetBatch("0xBatcher", batch, "rust", new ArrayList<>(Collections.nCopies(batch.size(), (byte[]) null))));
+        for (int i = 0; i < ids.size(); i += 3) e.upvoteSnippet(ids.get(i), "0xVoter" + i % 5);
+        for (int i = 0; i < ids.size(); i += 5) e.downvoteSnippet(ids.get(i), "0xVoter" + i % 4);
+        for (int i = 0; i < ids.size(); i += 4) e.tipSnippet(ids.get(i), "0xTipper", minTip.multiply(BigInteger.valueOf(i + 1)));
+        e.tipSnippet(ids.get(1), "0xWhale", BigInteger.TEN.pow(30));
+        e.tipSnippetBatch(List.of(ids.get(2), ids.get(3)), "0xTipper", List.of(minTip, BigInteger.TWO.pow(80)));
+        e.withdrawTips("0xAuthor1");
+        e.updateSnippet(ids.get(7), "0xAuthor0", "updated".getBytes(StandardCharsets.UTF_8));
+        e.deleteSnippet(ids.get(8), "0xAuthor1");
+        e.addSnippetTag(ids.get(9), FocHashUtil.topicHashHex("defi"), "0xAuthor2");
+        e.awardBadge("0xAuthor3", 2, curator);
+        long hint = e.requestHint("0xAsker", FocHashUtil.topicHashHex("reentrancy"), ids.get(0));
+        e.requestHint("0xAsker", FocHashUtil.topicHashHex("overflow"), 0);
+        e.fulfillHint(hint, FOCConfig.FOC_FULFILLER_ADDR);
+        e.setHintPriority(FocHintPriority.NEWEST_FIRST, curator);
+        e.setHintTtl(60_000, curator);
+        e.registerLanguage(FocHashUtil.languageIdHash("move"), curator);
+        e.setDedupeOnSubmit(true, curator);
+        e.setPaused(true, curator);
+        e.setPaused(false, curator);
+    }
+
+    private static List<String> fingerprint(FrenOfClaw e) {
+        List<String> out = new ArrayList<>();
+        out.add("stats " + e.getGlobalStats());
+        out.add("hint priority " + e.getHintPriority() + ", open hints " + e.getOpenHintQueueSize());
+        out.add("top snippets " + e.getTopSnippetsByReputation(50));
+        out.add("top authors " + e.getTopAuthorsByReputation(50));
+        out.add("top tip balances " + e.getTopAuthorsByTipBalance(50));
+        out.add("badges " + e.getBadgeBits("0xAuthor3"));
+        out.add("events " + e.getEventCount());
+        for (long id = 1; ; id++) {
+            FocSnippetRecord s = e.getSnippet(id);
+            if (s == null) break;
+            out.add("snippet " + id + " " + s.getAuthor() + " deleted=" + s.isDeleted() + " score=" + s.getReputationScore()
+                    + " tips=" + s.getTipBalance() + " hash=" + s.getContentHash().toHex() + " tags=" + e.getSnippetTags(id));
+        }
+        for (FocEvent ev : e.getEvents(0, Integer.MAX_VALUE)) out.add("event " + ev.getSeq() + " " + ev.getType() + " at " + ev.getTimestamp());
+        return out;
+    }
+
+    private static void require(boolean ok, String what) {
+        if (!ok) throw new IllegalStateException("FOC: journal check failed: " + what);
+    }
+}
+
+// ─── Snapshots ───────────────────────────────────────────────────────────────
+
+/** Buffered snapshot writer; each distinct string is written once and then referenced by index. */
+final class FocSnapshotOutput {
+    static final int NULL_STRING = -1;
+    static final int NEW_STRING = -2;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    FocSnapshotOutput(OutputStream os) {
+        this.out = new DataOutputStream(new BufferedOutputStream(os, 1 << 20));
+    }
+
+    void writeBoolean(boolean v) throws IOException { out.writeBoolean(v); }
+    void writeInt(int v) throws IOException { out.writeInt(v); }
+    void writeLong(long v) throws IOException { out.writeLong(v); }
+
+    void writeString(String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        Integer ref = strings.get(s);
+        if (ref != null) {
+            out.writeInt(ref);
+            return;
+        }
+        strings.put(s, strings.size());
+        out.writeInt(NEW_STRING);
+        out.writeUTF(s);
+    }
+
+    void writeHash(FocHash256 h) throws IOException {
+        out.writeLong(h.w0);
+        out.writeLong(h.w1);
+        out.writeLong(h.w2);
+        out.writeLong(h.w3);
+    }
+
+    void writeWei(BigInteger v) throws IOException {
+        byte[] b = v.toByteArray();
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+}
+
+final class FocSnapshotInput {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    FocSnapshotInput(InputStream is) {
+        this.in = new DataInputStream(new BufferedInputStream(is, 1 << 20));
+    }
+
+    boolean readBoolean() throws IOException { return in.readBoolean(); }
+    int readInt() throws IOException { return in.readInt(); }
+    long readLong() throws IOException { return in.readLong(); }
+
+    String readString() throws IOException {
+        int ref = in.readInt();
+        if (ref == FocSnapshotOutput.NULL_STRING) return null;
+        if (ref == FocSnapshotOutput.NEW_STRING) {
+            String s = in.readUTF();
+            strings.add(s);
+            return s;
+        }
+        if (ref < 0 || ref >= strings.size()) throw new IOException("FOC: snapshot string ref " + ref + " out of range");
+        return strings.get(ref);
+    }
+
+    FocHash256 readHash() throws IOException {
+        return new FocHash256(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    BigInteger readWei() throws IOException {
+        byte[] b = new byte[in.readUnsignedShort()];
+        in.readFully(b);
+        return new BigInteger(b);
+    }
+}
+
+/**
+ * Snapshot files in a directory, named by the journal position they cover. A snapshot is written
+ * to a temp file, forced, then atomically renamed, and ends with END_MAGIC so a torn copy is skipped.
+ */
+final class FocSnapshots {
+    static final int MAGIC = 0x464f4353;
+    static final int VERSION = 3;
+    static final long END_MAGIC = 0x464f43534e415021L;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private FocSnapshots() {}
+
+    static Path write(FrenOfClaw engine, long journalPosition, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String name = String.format(PREFIX + "%020d" + SUFFIX, journalPosition);
+        Path tmp = dir.resolve(name + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            FocSnapshotOutput out = new FocSnapshotOutput(Channels.newOutputStream(ch));
+            engine.writeSnapshot(out, journalPosition);
+            out.flush();
+            ch.force(true);
+        }
+        return Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Complete snapshots, newest first. */
+    static List<Path> list(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return Collections.emptyList();
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                if (isComplete(p)) out.add(p);
+            }
+        }
+        out.sort(Comparator.comparing((Path p) -> p.getFileName().toString()).reversed());
+        return out;
+    }
+
+    static boolean isComplete(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            if (ch.size() < 24) return false;
+            ByteBuffer head = ByteBuffer.allocate(8);
+            ByteBuffer tail = ByteBuffer.allocate(8);
+            ch.read(head, 0);
+            ch.read(tail, ch.size() - 8);
+            return head.getInt(0) == MAGIC && head.getInt(4) == VERSION && tail.getLong(0) == END_MAGIC;
+        }
+    }
+
+    /** The journal position a snapshot file was taken at, from its name. */
+    static long positionOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /** Deletes all but the newest keep snapshots, plus any leftover temp files. */
+    static void prune(Path dir, int keep) throws IOException {
+        List<Path> all = list(dir);
+        for (int i = keep; i < all.size(); i++) Files.deleteIfExists(all.get(i));
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX + ".tmp")) {
+            for (Path p : ds) Files.deleteIfExists(p);
+        }
+    }
+}
+
+/**
+ * Lets the checkpointer stop engine mutations for an exact cut. A mutation counts itself in on a
+ * padded per-thread cell and then re-checks the gate, so an open gate costs it two uncontended
+ * atomics; close() waits for the cells to drain, and mutations arriving meanwhile wait for open().
+ * Gated mutations must not nest.
+ */
+final class FocWriteGate {
+    private static final int STRIDE = 8;
+    private static final int CELLS = 64;
+    private static final ThreadLocal<int[]> CELL = ThreadLocal.withInitial(() -> new int[] {ThreadLocalRandom.current().nextInt(CELLS) * STRIDE});
+
+    private final AtomicLongArray inFlight = new AtomicLongArray(CELLS * STRIDE);
+    private volatile boolean closed;
+
+    void enter() {
+        int i = CELL.get()[0];
+        for (;;) {
+            inFlight.incrementAndGet(i);
+            if (!closed) return;
+            inFlight.decrementAndGet(i);
+            awaitOpen();
+        }
+    }
+
+    void exit() {
+        inFlight.decrementAndGet(CELL.get()[0]);
+    }
+
+    /** Closes the gate and returns once no mutation is in flight. */
+    synchronized void close() {
+        closed = true;
+        for (int i = 0; i < inFlight.length(); i += STRIDE) {
+            while (inFlight.get(i) != 0) Thread.yield();
+        }
+    }
+
+    synchronized void open() {
+        closed = false;
+        notifyAll();
+    }
+
+    private synchronized void awaitOpen() {
+        boolean interrupted = false;
+        while (closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
+
+/**
+ * Takes snapshots of the live engine at exact journal cuts. Each checkpoint closes the engine's
+ * write gate, so mutations in flight finish and new ones wait, then serialises the live stores
+ * at the journal's position and reopens the gate. No second copy of state is kept; the cost is
+ * that writers stall for as long as one snapshot takes to write.
+ */
+final class FocCheckpointer implements Closeable {
+    private final FrenOfClaw live;
+    private final FocJournal journal;
+    private final Path dir;
+    private final long intervalMillis;
+    private long position;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private final Thread worker;
+
+    private FocCheckpointer(FrenOfClaw live, FocJournal journal, Path dir, long position, long intervalMillis) {
+        this.live = live;
+        this.journal = journal;
+        this.dir = dir;
+        this.position = position;
+        this.intervalMillis = intervalMillis;
+        this.worker = new Thread(this::run, "foc-checkpointer");
+        this.worker.setDaemon(true);
+    }
+
+    static FocCheckpointer start(FrenOfClaw live, Path dir) throws IOException {
+        return start(live, dir, FOCConfig.FOC_SNAPSHOT_INTERVAL_MS);
+    }
+
+    /** Starts checkpointing live into dir every intervalMillis (no background thread if <= 0). */
+    static FocCheckpointer start(FrenOfClaw live, Path dir, long intervalMillis) throws IOException {
+        FocJournal j = live.getJournal();
+        if (j == null) throw new IllegalStateException("FOC: no journal attached");
+        List<Path> found = FocSnapshots.list(dir);
+        FocCheckpointer c = new FocCheckpointer(live, j, dir, found.isEmpty() ? 0L : FocSnapshots.positionOf(found.get(0)), intervalMillis);
+        if (intervalMillis > 0) c.worker.start();
+        return c;
+    }
+
+    /**
+     * Writes a snapshot of the live engine, prunes old ones and retires the journal segments below
+     * the oldest snapshot kept, which no restart can need any more.
+     */
+    synchronized Path checkpoint() throws IOException {
+        Path p = live.snapshotTo(dir);
+        position = FocSnapshots.positionOf(p);
+        FocSnapshots.prune(dir, FOCConfig.FOC_SNAPSHOTS_RETAINED);
+        List<Path> kept = FocSnapshots.list(dir);
+        journal.retireBefore(FocSnapshots.positionOf(kept.get(kept.size() - 1)));
+        return p;
+    }
+
+    /** Journal position of the newest snapshot. */
+    synchronized long position() {
+        return position;
+    }
+
+    IOException lastFailure() {
+        return failure;
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(intervalMillis);
+                if (!closed) checkpoint();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        try {
+            if (worker.isAlive()) worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// ─── Bulk import ─────────────────────────────────────────────────────────────
+
+enum FocImportFormat {
+    /** One JSON object per line with string fields author, language, content and optional title. */
+    NDJSON,
+    /** A header row, then author,language,content[,title] per record with RFC 4180 quoting. */
+    CSV
+}
+
+/** Where a FocImporter resumes: every record before the offset is settled, and so is each record starting at a done offset. */
+final class FocImportCheckpoint {
+    static final FocImportCheckpoint START = new FocImportCheckpoint(0L, new long[0]);
+
+    private final long offset;
+    private final long[] done;
+
+    FocImportCheckpoint(long offset, long[] done) {
+        this.offset = offset;
+        this.done = done;
+    }
+
+    public long getOffset() { return offset; }
+    /** Start offsets, ascending, of records past getOffset() that were already imported or rejected. */
+    public long[] getDone() { return done.clone(); }
+    boolean isDone(long recordStart) { return Arrays.binarySearch(done, recordStart) >= 0; }
+    long[] done() { return done; }
+}
+
+/** Point-in-time counters of a running FocImporter. */
+final class FocImportProgress {
+    private final long recordsRead;
+    private final long imported;
+    private final long rejected;
+    private final FocImportCheckpoint checkpoint;
+    private final int backlogChunks;
+    private final long elapsedNanos;
+    private final boolean done;
+
+    FocImportProgress(long recordsRead, long imported, long rejected, FocImportCheckpoint checkpoint, int backlogChunks, long elapsedNanos, boolean done) {
+        this.recordsRead = recordsRead;
+        this.imported = imported;
+        this.rejected = rejected;
+        this.checkpoint = checkpoint;
+        this.backlogChunks = backlogChunks;
+        this.elapsedNanos = elapsedNanos;
+        this.done = done;
+    }
+
+    public long getRecordsRead() { return recordsRead; }
+    public long getImported() { return imported; }
+    public long getRejected() { return rejected; }
+    /** File offset every record before which has been imported or rejected. */
+    public long getCommittedOffset() { return checkpoint.getOffset(); }
+    /** Pass to FocImporter.start to resume without losing or repeating a record. */
+    public FocImportCheckpoint getCheckpoint() { return checkpoint; }
+    /** Chunks read but not yet submitted. */
+    public int getBacklogChunks() { return backlogChunks; }
+    public long getElapsedNanos() { return elapsedNanos; }
+    public boolean isDone() { return done; }
+
+    public double getRecordsPerSecond() {
+        return elapsedNanos == 0 ? 0 : (imported + rejected) * 1e9 / elapsedNanos;
+    }
+}
+
+/** Record parsers for FocImportFormat; each returns {author, language, content, title} or null if malformed. */
+final class FocImportParser {
+    private FocImportParser() {}
+
+    static String[] parse(FocImportFormat format, String record) {
+        return format == FocImportFormat.NDJSON ? ndjson(record) : csv(record);
+    }
+
+    /** Flat JSON object of string (or null) values; unknown keys are ignored. */
+    static String[] ndjson(String line) {
+        String[] out = new String[4];
+        int[] pos = {skipSpace(line, 0)};
+        if (!expect(line, pos, '{')) return null;
+        if (!expect(line, pos, '}')) {
+            do {
+                String key = jsonString(line, pos);
+                if (key == null || !expect(line, pos, ':')) return null;
+                pos[0] = skipSpace(line, pos[0]);
+                String value;
+                if (line.startsWith("null", pos[0])) {
+                    pos[0] += 4;
+                    value = null;
+                } else if ((value = jsonString(line, pos)) == null) {
+                    return null;
+                }
+                int field = field(key);
+                if (field >= 0) out[field] = value;
+            } while (expect(line, pos, ','));
+            if (!expect(line, pos, '}')) return null;
+        }
+        return skipSpace(line, pos[0]) == line.length() ? out : null;
+    }
+
+    private static int field(String key) {
+        switch (key) {
+            case "author": return 0;
+            case "language": return 1;
+            case "content": return 2;
+            case "title": return 3;
+            default: return -1;
+        }
+    }
+
+    private static boolean expect(String s, int[] pos, char c) {
+        int i = skipSpace(s, pos[0]);
+        if (i >= s.length() || s.charAt(i) != c) return false;
+        pos[0] = i + 1;
+        return true;
+    }
+
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static String jsonString(String s, int[] pos) {
+        int i = skipSpace(s, pos[0]);
+        if (i >= s.length() || s.charAt(i) != '"') return null;
+        StringBuilder sb = new StringBuilder();
+        for (i++; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                pos[0] = i + 1;
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i >= s.length()) return null;
+            switch (s.charAt(i)) {
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= s.length()) return null;
+                    try {
+                        sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    i += 4;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    static String[] csv(String record) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        int n = record.length();
+        for (;;) {
+            sb.setLength(0);
+            if (i < n && record.charAt(i) == '"') {
+                for (i++; ; i++) {
+                    if (i >= n) return null;
+                    char c = record.charAt(i);
+                    if (c != '"') {
+                        sb.append(c);
+                    } else if (i + 1 < n && record.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        i++;
+                        break;
+                    }
+                }
+                if (i < n && record.charAt(i) != ',') return null;
+            } else {
+                int comma = record.indexOf(',', i);
+                int end = comma < 0 ? n : comma;
+                sb.append(record, i, end);
+                i = end;
+            }
+            fields.add(sb.toString());
+            if (i >= n) break;
+            i++;
+        }
+        if (fields.size() < 3 || fields.size() > 4) return null;
+        return new String[] {fields.get(0), fields.get(1), fields.get(2), fields.size() == 4 ? fields.get(3) : null};
+    }
+}
+
+/**
+ * Streams a snippet corpus from a file into the engine. A reader thread cuts the file into chunks
+ * of whole records; a worker pool parses, validates and hashes chunks in parallel; a submitter
+ * takes chunk results in file order and feeds each chunk's records, grouped by author and
+ * language, to the bulk submit path. The hand-off between reader and submitter holds at most
+ * FOC_IMPORT_QUEUE_CHUNKS chunks, so a slow engine back-pressures the reader. Grouping settles a
+ * chunk's records out of file order, so the checkpoint is the offset of the first unsettled
+ * record plus the start offsets of the records past it that are already settled; resuming from
+ * it skips those, and neither loses nor repeats a record.
+ */
+final class FocImporter implements Closeable {
+    /** Raw records cut by the reader: record i is data[i == 0 ? 0 : ends[i - 1] .. ends[i]). */
+    private static final class RawChunk {
+        final long startOffset;
+        final long endOffset;
+        final byte[] data;
+        final int[] ends;
+
+        RawChunk(long startOffset, long endOffset, byte[] data, int[] ends) {
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.data = data;
+            this.ends = ends;
+        }
+    }
+
+    /**
+     * Records of a chunk that passed validation, plus counts of the ones that did not. Valid record
+     * v is record[v] of the chunk; order lists valid records grouped by author and language, cut
+     * into submit runs at runEnds. settled and prefix are guarded by the importer's monitor.
+     */
+    private static final class ParsedChunk {
+        final long endOffset;
+        final int read;
+        final int rejected;
+        final long[] starts;
+        final boolean[] settled;
+        final String[] authors;
+        final FocLanguage[] languages;
+        final FocHash256[] hashes;
+        final int[] record;
+        final int[] order;
+        final int[] runEnds;
+        int prefix;
+
+        ParsedChunk(long endOffset, int read, int rejected, long[] starts, boolean[] settled, String[] authors,
+                    FocLanguage[] languages, FocHash256[] hashes, int[] record, int[] order, int[] runEnds) {
+            this.endOffset = endOffset;
+            this.read = read;
+            this.rejected = rejected;
+            this.starts = starts;
+            this.settled = settled;
+            this.authors = authors;
+            this.languages = languages;
+            this.hashes = hashes;
+            this.record = record;
+            this.order = order;
+            this.runEnds = runEnds;
+        }
+    }
+
+    private static final Future<ParsedChunk> END = CompletableFuture.completedFuture(null);
+
+    private final FrenOfClaw engine;
+    private final Path file;
+    private final FocImportFormat format;
+    private final FocImportCheckpoint from;
+    private final ExecutorService workers;
+    private final BlockingQueue<Future<ParsedChunk>> pending = new ArrayBlockingQueue<>(FOCConfig.FOC_IMPORT_QUEUE_CHUNKS);
+    private final Thread reader;
+    private final Thread submitter;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicLong recordsRead = new AtomicLong();
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final long startedAt = System.nanoTime();
+    /** Offset every record before which is settled; with current, guarded by this. */
+    private long committedOffset;
+    /** The chunk being submitted, or null between chunks. */
+    private ParsedChunk current;
+    private volatile long finishedAt;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    private FocImporter(FrenOfClaw engine, Path file, FocImportFormat format, FocImportCheckpoint from, int workerCount) {
+        this.engine = engine;
+        this.file = file;
+        this.format = format;
+        this.from = from;
+        this.committedOffset = from.getOffset();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "foc-import-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.reader = new Thread(this::read, "foc-import-reader");
+        this.reader.setDaemon(true);
+        this.submitter = new Thread(this::submit, "foc-import-submitter");
+        this.submitter.setDaemon(true);
+    }
+
+    static FocImporter start(FrenOfClaw engine, Path file, FocImportFormat format) {
+        return start(engine, file, format, FocImportCheckpoint.START);
+    }
+
+    /** Starts importing file from the checkpoint of an earlier run over the same file. */
+    static FocImporter start(FrenOfClaw engine, Path file, FocImportFormat format, FocImportCheckpoint from) {
+        if (from.getOffset() < 0) throw new IllegalArgumentException("FOC: negative import offset");
+        FocImporter importer = new FocImporter(engine, file, format, from, Runtime.getRuntime().availableProcessors());
+        importer.reader.start();
+        importer.submitter.start();
+        return importer;
+    }
+
+    FocImportProgress progress() {
+        boolean done = finished.getCount() == 0;
+        long elapsed = (done ? finishedAt : System.nanoTime()) - startedAt;
+        return new FocImportProgress(recordsRead.get(), imported.get(), rejected.get(), checkpoint(), pending.size(), elapsed, done);
+    }
+
+    /** The settled offset and, past it, the settled records of the current chunk and any still-pending skips of the resumed checkpoint. */
+    private synchronized FocImportCheckpoint checkpoint() {
+        ParsedChunk c = current;
+        long offset = c == null ? committedOffset : c.prefix == c.starts.length ? c.endOffset : c.starts[c.prefix];
+        long scanned = c == null ? committedOffset : c.endOffset;
+        long[] done = new long[(c == null ? 0 : c.starts.length) + from.done().length];
+        int n = 0;
+        if (c != null) {
+            for (int i = c.prefix + 1; i < c.starts.length; i++) if (c.settled[i]) done[n++] = c.starts[i];
+        }
+        for (long d : from.done()) if (d >= scanned) done[n++] = d;
+        return new FocImportCheckpoint(offset, Arrays.copyOf(done, n));
+    }
+
+    /** Waits for the import to finish and returns its final progress; throws if a stage failed. */
+    FocImportProgress await() throws InterruptedException {
+        finished.await();
+        Throwable t = failure;
+        if (t != null) throw new FocImportException("stopped at offset " + checkpoint().getOffset(), t);
+        return progress();
+    }
+
+    private void read() {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate(FOCConfig.FOC_IMPORT_READ_BYTES);
+            byte[] data = new byte[FOCConfig.FOC_IMPORT_READ_BYTES];
+            int len = 0;
+            int scanned = 0;
+            boolean quoted = false;
+            int[] ends = new int[FOCConfig.FOC_IMPORT_CHUNK_RECORDS];
+            int records = 0;
+            long offset = from.getOffset();
+            long position = offset;
+            boolean eof = false;
+            while (!closed && !eof) {
+                block.clear();
+                int r = ch.read(block, position);
+                if (r < 0) {
+                    eof = true;
+                } else {
+                    position += r;
+                    if (len + r > data.length) data = Arrays.copyOf(data, Math.max(data.length << 1, len + r));
+                    System.arraycopy(block.array(), 0, data, len, r);
+                    len += r;
+                }
+                for (; scanned < len; scanned++) {
+                    byte b = data[scanned];
+                    if (b == '"' && format == FocImportFormat.CSV) {
+                        quoted = !quoted;
+                    } else if (b == '\n' && !quoted) {
+                        ends[records++] = scanned + 1;
+                        if (records == ends.length) {
+                            int cut = scanned + 1;
+                            dispatch(new RawChunk(offset, offset + cut, Arrays.copyOf(data, cut), ends));
+                            System.arraycopy(data, cut, data, 0, len - cut);
+                            len -= cut;
+                            scanned = -1;
+                            offset += cut;
+                            ends = new int[ends.length];
+                            records = 0;
+                        }
+                    }
+                }
+            }
+            if (!closed && (records > 0 || len > 0)) {
+                if (records == 0 || ends[records - 1] < len) ends[records++] = len;
+                dispatch(new RawChunk(offset, offset + len, Arrays.copyOf(data, len), Arrays.copyOf(ends, records)));
+            }
+            pending.put(END);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void dispatch(RawChunk chunk) throws InterruptedException {
+        pending.put(workers.submit(() -> parse(chunk)));
+    }
+
+    private ParsedChunk parse(RawChunk chunk) {
+        int n = chunk.ends.length;
+        long[] starts = new long[n];
+        boolean[] settled = new boolean[n];
+        String[] authors = new String[n];
+        FocLanguage[] languages = new FocLanguage[n];
+        FocHash256[] hashes = new FocHash256[n];
+        int[] record = new int[n];
+        int size = 0;
+        int read = 0;
+        int bad = 0;
+        for (int i = 0; i < n; i++) {
+            int from = i == 0 ? 0 : chunk.ends[i - 1];
+            int to = chunk.ends[i];
+            starts[i] = chunk.startOffset + from;
+            settled[i] = true;
+            while (to > from && (chunk.data[to - 1] == '\n' || chunk.data[to - 1] == '\r')) to--;
+            if (to == from) continue;
+            if (i == 0 && chunk.startOffset == 0 && format == FocImportFormat.CSV) continue;
+            if (this.from.isDone(starts[i])) continue;
+            read++;
+            String[] f = FocImportParser.parse(format, new String(chunk.data, from, to - from, StandardCharsets.UTF_8));
+            FocLanguage lang = f == null || f[0] == null || f[0].isEmpty() || f[1] == null || f[2] == null ? null : engine.languageNamed(f[1]);
+            byte[] content = lang == null ? null : f[2].getBytes(StandardCharsets.UTF_8);
+            if (content == null || content.length > FOCConfig.FOC_MAX_SNIPPET_BYTES
+                    || (f[3] != null && f[3].getBytes(StandardCharsets.UTF_8).length > FOCConfig.FOC_MAX_TITLE_BYTES)) {
+                bad++;
+                continue;
+            }
+            settled[i] = false;
+            record[size] = i;
+            authors[size] = f[0];
+            languages[size] = lang;
+            hashes[size++] = FocHashUtil.contentHash(content);
+        }
+
+        Integer[] grouped = new Integer[size];
+        for (int v = 0; v < size; v++) grouped[v] = v;
+        Arrays.sort(grouped, Comparator.<Integer, String>comparing(v -> authors[v]).thenComparingInt(v -> languages[v].getOrdinal()));
+        int[] order = new int[size];
+        int[] runEnds = new int[size];
+        int runs = 0;
+        for (int k = 0, runStart = 0; k < size; k++) {
+            order[k] = grouped[k];
+            if (k > runStart && (k - runStart == FOCConfig.FOC_MAX_SUBMIT_BATCH
+                    || !authors[order[k]].equals(authors[order[k - 1]]) || languages[order[k]] != languages[order[k - 1]])) {
+                runEnds[runs++] = runStart = k;
+            }
+        }
+        if (size > 0) runEnds[runs++] = size;
+        return new ParsedChunk(chunk.endOffset, read, bad, starts, settled, authors, languages, hashes, record, order, Arrays.copyOf(runEnds, runs));
+    }
+
+    private void submit() {
+        try {
+            for (;;) {
+                ParsedChunk chunk = pending.take().get();
+                if (chunk == null) break;
+                recordsRead.addAndGet(chunk.read);
+                rejected.addAndGet(chunk.rejected);
+                synchronized (this) {
+                    current = chunk;
+                    advance(chunk);
+                }
+                for (int r = 0, from = 0; r < chunk.runEnds.length; from = chunk.runEnds[r++]) {
+                    if (closed) return;
+                    submitRun(chunk, from, chunk.runEnds[r]);
+                }
+                synchronized (this) {
+                    committedOffset = chunk.endOffset;
+                    current = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            workers.shutdown();
+            finishedAt = System.nanoTime();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Submits order[from, to) of one author and language: as much as the author's cap has room for
+     * goes in one batch and, once the cap is full, the rest of the run is rejected in bulk.
+     */
+    private void submitRun(ParsedChunk chunk, int from, int to) {
+        String author = chunk.authors[chunk.order[from]];
+        FocLanguage language = chunk.languages[chunk.order[from]];
+        while (from < to) {
+            int room = FOCConfig.FOC_MAX_SNIPPETS_PER_AUTHOR - engine.getActiveSnippetCountForAuthor(author);
+            if (room <= 0) {
+                rejected.addAndGet(to - from);
+                settle(chunk, from, to);
+                return;
+            }
+            int end = Math.min(to, from + room);
+            FocHash256[] hashes = new FocHash256[end - from];
+            for (int k = from; k < end; k++) hashes[k - from] = chunk.hashes[chunk.order[k]];
+            try {
+                engine.submitHashedBatch(author, language, hashes);
+            } catch (FocAuthorSnippetCapException e) {
+                // Another writer took slots after room was read; read it again.
+                continue;
+            }
+            imported.addAndGet(end - from);
+            settle(chunk, from, end);
+            from = end;
+        }
+    }
+
+    private synchronized void settle(ParsedChunk chunk, int from, int to) {
+        for (int k = from; k < to; k++) chunk.settled[chunk.record[chunk.order[k]]] = true;
+        advance(chunk);
+    }
+
+    private static void advance(ParsedChunk chunk) {
+        while (chunk.prefix < chunk.settled.length && chunk.settled[chunk.prefix]) chunk.prefix++;
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) failure = t;
+        closed = true;
+        reader.interrupt();
+        submitter.interrupt();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+        submitter.interrupt();
+        workers.shutdownNow();
+        try {
+            if (reader.isAlive()) reader.join();
+            if (submitter.isAlive()) submitter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// ─── FrenOfClaw engine ────────────────────────────────────────────────────────
+
+public final class FrenOfClaw {
+    private final String curatorAddr;
+    private final String treasuryAddr;
+    private final String fulfillerAddr;
+    private volatile boolean paused;
+    /** Serialises curator settings so journal order matches the order they take effect. */
+    private final Object settingsLock = new Object();
+    private volatile boolean dedupeOnSubmit = FOCConfig.FOC_DEDUPE_ON_SUBMIT;
+    private final AtomicLong snippetCount = new AtomicLong(0);
+    private final AtomicLong hintRequestCount = new AtomicLong(0);
+    private final FocTipLedger tipLedger = new FocTipLedger();
+    /** Largest tip whose fee product amount * FOC_TREASURY_FEE_BPS still fits in a long. */
+    private static final long FOC_FAST_TIP_MAX_WEI = FOCConfig.FOC_TREASURY_FEE_BPS == 0 ? Long.MAX_VALUE : Long.MAX_VALUE / FOCConfig.FOC_TREASURY_FEE_BPS;
+
+    private final FocSnippetStorage snippetStorage;
+    private final FocSnippetStore snippets;
+    private final FocChunkedStore<FocHintRequest> hintRequests = new FocChunkedStore<>();
+    private final FocAuthorIndex snippetIdsByAuthor;
+    private final FocContentHashIndex snippetIdsByContentHash;
+    /** In-flight dedupe submits by content hash; completed with the id once it is indexed. */
+    private final ConcurrentMap<FocHash256, CompletableFuture<Long>> pendingContentHashes = new ConcurrentHashMap<>();
+    private final Map<String, List<Long>> hintRequestIdsByUser = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeSnippetsByAuthor = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> openHintsByUser = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> authorReputation = new ConcurrentHashMap<>();
+    private final Map<String, FocIdBitmap> upvotesByVoter = new ConcurrentHashMap<>();
+    private final Map<String, FocIdBitmap> downvotesByVoter = new ConcurrentHashMap<>();
+    private final FocLanguageRegistry languages = new FocLanguageRegistry();
+    private final FocRecentRing recentSnippetIds = new FocRecentRing(FOCConfig.FOC_RECENT_QUEUE_SIZE);
+    private final FocEventLog eventLog = new FocEventLog();
+    private volatile FocJournal journal;
+    /** Held open by every journaled mutation; the checkpointer closes it for a snapshot cut. */
+    private final FocWriteGate writeGate = new FocWriteGate();
+    private final Map<String, Integer> badgeBitsByAccount = new ConcurrentHashMap<>();
+    private final Map<Long, List<String>> snippetTags = new ConcurrentHashMap<>();
+    private final Map<String, FocIdBitmap> snippetIdsByTag = new ConcurrentHashMap<>();
+    private final FocHintQueue openHints = new FocHintQueue();
+    private final FocTimingWheel hintExpiry = new FocTimingWheel(FOCConfig.FOC_HINT_TTL_TICK_MS, System.currentTimeMillis());
+    /** Deadline of the current lease on each taken hint; not journaled, so a restart re-queues every open hint. */
+    private final Map<Long, Long> hintLeases = new ConcurrentHashMap<>();
+    private final FocTimingWheel hintLeaseExpiry = new FocTimingWheel(FOCConfig.FOC_HINT_TTL_TICK_MS, System.currentTimeMillis());
+    private final FocColdHintStore expiredHints = new FocColdHintStore();
+    private volatile long hintTtlMillis = FOCConfig.FOC_HINT_TTL_MS;
+    private volatile FocHintPriority hintPriority = FocHintPriority.OLDEST_FIRST;
+    private final FocLeaderboard<String, Long> authorsByReputation = new FocLeaderboard<>();
+    private final FocLeaderboard<String, BigInteger> authorsByTipBalance = new FocLeaderboard<>();
+    /** Authors whose tip balance changed since authorsByTipBalance last saw it. */
+    private final Set<String> tipRankPending = ConcurrentHashMap.newKeySet();
+    private final FocLeaderboard<Long, Long> snippetsByReputation = new FocLeaderboard<>();
+    private static final int FOC_MAX_TAGS_PER_SNIPPET = 4;
+
+    public FrenOfClaw() {
+        this(FOCConfig.FOC_CURATOR_ADDR, FOCConfig.FOC_TREASURY_ADDR, FOCConfig.FOC_FULFILLER_ADDR);
+    }
+
+    public FrenOfClaw(String curatorAddr, String treasuryAddr, String fulfillerAddr) {
+        this(curatorAddr, treasuryAddr, fulfillerAddr, FOCConfig.FOC_SNIPPET_STORAGE);
+    }
+
+    public FrenOfClaw(String curatorAddr, String treasuryAddr, String fulfillerAddr, FocSnippetStorage snippetStorage) {
+        if (curatorAddr == null || curatorAddr.isEmpty() || treasuryAddr == null || treasuryAddr.isEmpty() || fulfillerAddr == null || fulfillerAddr.isEmpty()) {
+            throw new FocZeroAddressException();
+        }
+        this.curatorAddr = curatorAddr;
+        this.treasuryAddr = treasuryAddr;
+        this.fulfillerAddr = fulfillerAddr;
+        this.paused = false;
+        this.snippetStorage = snippetStorage;
+        this.snippets = snippetStorage == FocSnippetStorage.OFF_HEAP ? new FocSnippetColumns(languages) : new FocHeapSnippetStore();
+        this.snippetIdsByAuthor = new FocAuthorIndex(snippets);
+        this.snippetIdsByContentHash = new FocContentHashIndex(snippets);
+        registerLanguageInternal("solidity");
+        registerLanguageInternal("javascript");
+        registerLanguageInternal("python");
+        registerLanguageInternal("rust");
+    }
+
+    private void registerLanguageInternal(String lang) {
+        languages.registerName(lang);
+    }
+
+    public void requireCurator(String caller) {
+        if (!curatorAddr.equalsIgnoreCase(caller)) throw new FocCuratorOnlyException();
+    }
+
+    public void requireTreasury(String caller) {
+        if (!treasuryAddr.equalsIgnoreCase(caller)) throw new FocTreasuryOnlyException();
+    }
+
+    public void requireFulfiller(String caller) {
+        if (!fulfillerAddr.equalsIgnoreCase(caller)) throw new FocFulfillerOnlyException();
+    }
+
+    public void requireNotPaused() {
+        if (paused) throw new FocPausedException();
+    }
+
+    public long submitSnippet(String author, byte[] content, String languageId, byte[] title) {
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            if (content.length > FOCConfig.FOC_MAX_SNIPPET_BYTES) throw new FocSnippetTooLongException();
+            if (title != null && title.length > FOCConfig.FOC_MAX_TITLE_BYTES) throw new FocTitleTooLongException();
+            FocLanguage lang = languages.byName(languageId);
+            if (lang == null) throw new FocLanguageAlreadyRegisteredException();
+            FocHash256 contentHash = FocHashUtil.contentHash(content);
+
+            if (!dedupeOnSubmit) {
+                long snippetId = createSnippet(author, contentHash, lang);
+                indexContentHash(contentHash, snippetId);
+                return snippetId;
+            }
+            // Dedupe: one submitter claims the hash and creates (journaling outside any map lock); concurrent
+            // identical submits wait on its claim, and retry for themselves if it failed.
+            for (;;) {
+                long existing = snippetIdsByContentHash.firstLive(contentHash);
+                if (existing != 0) return existing;
+                CompletableFuture<Long> claim = new CompletableFuture<>();
+                CompletableFuture<Long> other = pendingContentHashes.putIfAbsent(contentHash, claim);
+                if (other != null) {
+                    try {
+                        return other.join();
+                    } catch (CompletionException e) {
+                        continue;
+                    }
+                }
+                try {
+                    // Re-check: a claim that finished between our lookup and putIfAbsent has indexed its id.
+                    long id = snippetIdsByContentHash.firstLive(contentHash);
+                    if (id == 0) {
+                        id = createSnippet(author, contentHash, lang);
+                        indexContentHash(contentHash, id);
+                    }
+                    claim.complete(id);
+                    return id;
+                } catch (RuntimeException e) {
+                    claim.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    pendingContentHashes.remove(contentHash, claim);
+                }
+            }
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    private long createSnippet(String author, FocHash256 contentHash, FocLanguage lang) {
+        if (!tryReserve(activeSnippetsByAuthor, author, FOCConfig.FOC_MAX_SNIPPETS_PER_AUTHOR)) throw new FocAuthorSnippetCapException();
+        long snippetId = snippetCount.incrementAndGet();
+        long ts = System.currentTimeMillis();
+        FocSnippetSubmittedEvent event = new FocSnippetSubmittedEvent(snippetId, author, contentHash, lang.getHash(), ts);
+        // Journal before publishing: any later tip, vote or delete of this id is journaled after it.
+        try {
+            journal(event);
+        } catch (RuntimeException e) {
+            release(activeSnippetsByAuthor, author);
+            throw e;
+        }
+        publishSnippet(snippetId, author, contentHash, lang, ts);
+        eventLog.publish(event);
+        return snippetId;
+    }
+
+    private void publishSnippet(long snippetId, String author, FocHash256 contentHash, FocLanguage lang, long createdAt) {
+        snippets.create(snippetId, author, contentHash, lang, createdAt);
+        snippetIdsByAuthor.add(author, snippetId);
+        lang.addSnippet(snippetId);
+        pushRecentSnippet(snippetId);
+    }
+
+    /** Takes one slot of the account's cap, or returns false if the cap is already reached. */
+    private static boolean tryReserve(Map<String, AtomicInteger> counters, String account, int cap) {
+        AtomicInteger c = counters.computeIfAbsent(account, k -> new AtomicInteger());
+        for (;;) {
+            int cur = c.get();
+            if (cur >= cap) return false;
+            if (c.compareAndSet(cur, cur + 1)) return true;
+        }
+    }
+
+    /** Takes n slots of the account's cap at once, or none if fewer than n are left. */
+    private static boolean tryReserve(Map<String, AtomicInteger> counters, String account, int n, int cap) {
+        AtomicInteger c = counters.computeIfAbsent(account, k -> new AtomicInteger());
+        for (;;) {
+            int cur = c.get();
+            if (cur > cap - n) return false;
+            if (c.compareAndSet(cur, cur + n)) return true;
+        }
+    }
+
+    private static void release(Map<String, AtomicInteger> counters, String account) {
+        AtomicInteger c = counters.get(account);
+        if (c != null) c.decrementAndGet();
+    }
+
+    private static int countOf(Map<String, AtomicInteger> counters, String account) {
+        AtomicInteger c = counters.get(account);
+        return c == null ? 0 : c.get();
+    }
+
+    private void indexContentHash(FocHash256 contentHash, long snippetId) {
+        snippetIdsByContentHash.add(contentHash, snippetId);
+    }
+
+    private void unindexContentHash(FocHash256 contentHash, long snippetId) {
+        snippetIdsByContentHash.remove(contentHash, snippetId);
+    }
+
+    private void pushRecentSnippet(long snippetId) {
+        recentSnippetIds.push(snippetId);
+    }
+
+    public void updateSnippet(long snippetId, String author, byte[] newContent) {
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            FocSnippetRecord s = snippets.get(snippetId);
+            if (s == null) throw new FocInvalidSnippetIdException();
+            if (s.isDeleted()) throw new FocSnippetDeletedException();
+            if (!s.getAuthor().equals(author)) throw new FocNotAuthorException();
+            if (newContent.length > FOCConfig.FOC_MAX_SNIPPET_BYTES) throw new FocSnippetTooLongException();
+
+            FocHash256 newHash = FocHashUtil.contentHash(newContent);
+            long ts = System.currentTimeMillis();
+            FocSnippetUpdatedEvent event = new FocSnippetUpdatedEvent(snippetId, author, newHash, ts);
+            journal(event);
+            applySnippetUpdate(snippetId, s, newHash, ts);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    private void applySnippetUpdate(long snippetId, FocSnippetRecord s, FocHash256 newHash, long updatedAt) {
+        FocHash256 oldHash = s.swapContentHash(newHash);
+        if (!oldHash.equals(newHash)) {
+            unindexContentHash(oldHash, snippetId);
+            indexContentHash(newHash, snippetId);
+            if (s.isDeleted()) unindexContentHash(newHash, snippetId);
+        }
+        s.setUpdatedAt(updatedAt);
+    }
+
+    public void deleteSnippet(long snippetId, String author) {
+        writeGate.enter();
+        try {
+            FocSnippetRecord s = snippets.get(snippetId);
+            if (s == null) throw new FocInvalidSnippetIdException();
+            if (s.isDeleted()) throw new FocSnippetDeletedException();
+            if (!s.getAuthor().equals(author)) throw new FocNotAuthorException();
+
+            if (!s.markDeleted()) throw new FocSnippetDeletedException();
+            FocSnippetDeletedEvent event = new FocSnippetDeletedEvent(snippetId, author);
+            try {
+                journal(event);
+            } catch (RuntimeException e) {
+                s.unmarkDeleted();
+                throw e;
+            }
+            applySnippetDeletion(snippetId, s);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    /** Everything a delete does after the live -> deleted flip. */
+    private void applySnippetDeletion(long snippetId, FocSnippetRecord s) {
+        release(activeSnippetsByAuthor, s.getAuthor());
+        addAuthorReputation(s.getAuthor(), -s.getReputationScore());
+        unindexContentHash(s.getContentHash(), snippetId);
+        s.getLanguage().removeSnippet(snippetId);
+        rankSnippet(snippetId);
+        List<String> tags = snippetTags.get(snippetId);
+        if (tags != null) {
+            for (String t : tags) {
+                FocIdBitmap postings = snippetIdsByTag.get(t);
+                if (postings != null) postings.remove(snippetId);
+            }
+        }
+    }
+
+    public void tipSnippet(long snippetId, String tipper, BigInteger amountWei) {
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            if (amountWei.compareTo(BigInteger.valueOf(FOCConfig.FOC_MIN_TIP_WEI)) < 0) throw new FocTipTooSmallException();
+            FocSnippetRecord s = snippets.get(snippetId);
+            if (s == null) throw new FocInvalidSnippetIdException();
+            if (s.isDeleted()) throw new FocSnippetDeletedException();
+
+            if (amountWei.bitLength() < 64 && amountWei.longValue() <= FOC_FAST_TIP_MAX_WEI) {
+                // Long fast path; positive long division truncates exactly like BigInteger.divide.
+                long amount = amountWei.longValue();
+                long fee = treasuryFee(amount);
+                long toAuthor = amount - fee;
+                FocSnippetTippedEvent event = new FocSnippetTippedEvent(snippetId, tipper, amount, toAuthor, fee);
+                // Journal before crediting so a withdraw can never be durable ahead of the tips it drained.
+                journal(event);
+                applyTip(s, event);
+                eventLog.publish(event);
+                return;
+            }
+            BigInteger fee = treasuryFee(amountWei);
+            BigInteger toAuthor = amountWei.subtract(fee);
+            FocSnippetTippedEvent event = new FocSnippetTippedEvent(snippetId, tipper, amountWei, toAuthor, fee);
+            journal(event);
+            applyTip(s, event);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    private void applyTip(FocSnippetRecord s, FocSnippetTippedEvent ev) {
+        if (ev.wide == null) {
+            s.addTipBalance(ev.authorShare);
+            tipLedger.recordTip(s.getAuthor(), ev.amountWei, ev.treasuryFee);
+        } else {
+            s.addTipBalance(ev.wide[1]);
+            tipLedger.recordTip(s.getAuthor(), ev.wide[0], ev.wide[2]);
+        }
+        rankTipBalance(s.getAuthor());
+    }
+
+    static long treasuryFee(long amountWei) {
+        return amountWei * FOCConfig.FOC_TREASURY_FEE_BPS / FOCConfig.FOC_BPS_DENOM;
+    }
+
+    static BigInteger treasuryFee(BigInteger amountWei) {
+        return amountWei.multiply(BigInteger.valueOf(FOCConfig.FOC_TREASURY_FEE_BPS)).divide(BigInteger.valueOf(FOCConfig.FOC_BPS_DENOM));
+    }
+
+    public BigInteger withdrawTips(String author) {
+        writeGate.enter();
+        try {
+            BigInteger balance = tipLedger.withdraw(author);
+            if (balance.compareTo(BigInteger.ZERO) <= 0) {
+                if (balance.signum() != 0) tipLedger.undoWithdraw(author, balance);
+                throw new FocInsufficientBalanceException();
+            }
+            // The read-and-reset is the claim; journal exactly what it took, and put it back if that fails.
+            FocTipsWithdrawnEvent event = new FocTipsWithdrawnEvent(author, balance);
+            try {
+                journal(event);
+            } catch (RuntimeException e) {
+                tipLedger.undoWithdraw(author, balance);
+                throw e;
+            }
+            rankTipBalance(author);
+            eventLog.publish(event);
+            return balance;
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    public long requestHint(String requester, String topicHashHex, long snippetId) {
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            FocHash256 topicHash = FocHash256.fromHex(topicHashHex);
+            if (snippetId != 0) {
+                FocSnippetRecord s = snippets.get(snippetId);
+                if (s == null || s.isDeleted()) throw new FocInvalidSnippetIdException();
+            }
+            if (!tryReserve(openHintsByUser, requester, FOCConfig.FOC_MAX_HINT_REQUESTS_PER_USER)) throw new FocHintRequestCapException();
+
+            long hintId = hintRequestCount.incrementAndGet();
+            long ts = System.currentTimeMillis();
+            FocHintRequestedEvent event = new FocHintRequestedEvent(hintId, requester, topicHash, snippetId, ts);
+            try {
+                journal(event);
+            } catch (RuntimeException e) {
+                release(openHintsByUser, requester);
+                throw e;
+            }
+            publishHint(hintId, requester, topicHash, snippetId, ts);
+            eventLog.publish(event);
+            return hintId;
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    private void publishHint(long hintId, String requester, FocHash256 topicHash, long snippetId, long createdAt) {
+        FocHintRequest h = new FocHintRequest(requester, topicHash, snippetId, createdAt);
+        hintRequests.put(hintId, h);
+        hintRequestIdsByUser.computeIfAbsent(requester, k -> new CopyOnWriteArrayList<>()).add(hintId);
+        openHints.offer(hintId, hintPriority.of(hintId, h));
+        scheduleExpiry(hintId, h);
+    }
+
+    private void scheduleExpiry(long hintId, FocHintRequest h) {
+        long ttl = hintTtlMillis;
+        if (ttl <= 0) return;
+        h.setExpiresAt(h.getCreatedAt() + ttl);
+        hintExpiry.schedule(hintId, h.getExpiresAt());
+    }
+
+    /**
+     * Expires every open hint whose TTL has passed by nowMillis: it emits FocHintExpiredEvent,
+     * frees the requester's cap slot and moves the request to cold storage. Hints fulfilled in
+     * the meantime are skipped when they fire. Returns the number expired.
+     */
+    public int expireHints(long nowMillis) {
+        writeGate.enter();
+        try {
+            int expired = 0;
+            long[] due = hintExpiry.advance(nowMillis);
+            for (int i = 0; i < due.length; i++) {
+                long id = due[i];
+                FocHintRequest h = hintRequests.get(id);
+                if (h == null || !h.transitionFromOpen(FocHintRequest.STATE_EXPIRED)) continue;
+                FocHintExpiredEvent event = new FocHintExpiredEvent(id, h.getRequester(), nowMillis);
+                try {
+                    journal(event);
+                } catch (RuntimeException e) {
+                    // Nothing from here on was journaled: leave those hints open and due on the next tick.
+                    h.revertToOpen(FocHintRequest.STATE_EXPIRED);
+                    for (int j = i; j < due.length; j++) hintExpiry.schedule(due[j], nowMillis);
+                    throw e;
+                }
+                applyHintExpiry(id, h, nowMillis);
+                eventLog.publish(event);
+                expired++;
+            }
+            return expired;
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    private void applyHintExpiry(long hintId, FocHintRequest h, long expiredAt) {
+        openHints.remove(hintId);
+        hintLeases.remove(hintId);
+        h.setExpiredAt(expiredAt);
+        release(openHintsByUser, h.getRequester());
+        expiredHints.put(hintId, h, expiredAt);
+        hintRequests.remove(hintId);
+    }
+
+    /** TTL for hints requested from now on; 0 disables expiry for them. */
+    public void setHintTtl(long ttlMillis, String curator) {
+        writeGate.enter();
+        try {
+            requireCurator(curator);
+            if (ttlMillis < 0) throw new IllegalArgumentException("FOC: negative hint TTL");
+            synchronized (settingsLock) {
+                FocHintTtlChangedEvent event = new FocHintTtlChangedEvent(ttlMillis);
+                journal(event);
+                hintTtlMillis = ttlMillis;
+                eventLog.publish(event);
+            }
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    public long getHintTtl() { return hintTtlMillis; }
+    public long getExpiredHintCount() { return expiredHints.size(); }
+
+    public void fulfillHint(long hintId, String fulfiller) {
+        writeGate.enter();
+        try {
+            requireFulfiller(fulfiller);
+            requireNotPaused();
+            FocHintRequest h = hintRequests.get(hintId);
+            if (h == null) {
+                if (expiredHints.get(hintId) != null) throw new FocHintExpiredException();
+                throw new FocInvalidHintIdException();
+            }
+            if (h.isFulfilled()) throw new FocHintAlreadyFulfilledException();
+
+            if (!h.transitionFromOpen(FocHintRequest.STATE_FULFILLED)) {
+                if (h.isExpired()) throw new FocHintExpiredException();
+                throw new FocHintAlreadyFulfilledException();
+            }
+            long ts = System.currentTimeMillis();
+            FocHintFulfilledEvent event = new FocHintFulfilledEvent(hintId, fulfiller, ts);
+            try {
+                journal(event);
+            } catch (RuntimeException e) {
+                h.revertToOpen(FocHintRequest.STATE_FULFILLED);
+                throw e;
+            }
+            applyHintFulfilment(hintId, h, fulfiller, ts);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    private void applyHintFulfilment(long hintId, FocHintRequest h, String fulfiller, long fulfilledAt) {
+        openHints.remove(hintId);
+        hintLeases.remove(hintId);
+        h.setFulfilledAt(fulfilledAt);
+        h.setFulfiller(fulfiller);
+        release(openHintsByUser, h.getRequester());
+    }
+
+    /**
+     * Hands the highest-priority open hint to a fulfiller worker, waiting up to timeout; returns
+     * 0 if none is available. The hint leaves the queue on a lease of FOC_HINT_LEASE_MS: a worker
+     * that cannot fulfil it should call returnOpenHint, and one that never answers loses it to
+     * reclaimHintLeases once the lease runs out.
+     */
+    public long takeOpenHint(String fulfiller, long timeout, TimeUnit unit) throws InterruptedException {
+        requireFulfiller(fulfiller);
+        reclaimHintLeases(System.currentTimeMillis());
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (;;) {
+            long id = openHints.take(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (id == 0) return 0L;
+            // A hint fulfilled between publish and offer can linger; drop it here.
+            if (lease(id)) return id;
+        }
+    }
+
+    /** Waits up to timeout for one open hint, then takes up to max in priority order without waiting further. */
+    public List<Long> takeOpenHints(String fulfiller, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        List<Long> out = new ArrayList<>(Math.max(0, Math.min(max, 1024)));
+        if (max <= 0) return out;
+        long first = takeOpenHint(fulfiller, timeout, unit);
+        if (first == 0) return out;
+        out.add(first);
+        while (out.size() < max) {
+            long id = openHints.poll();
+            if (id == 0) break;
+            if (lease(id)) out.add(id);
+        }
+        return out;
+    }
+
+    /** Leases a hint just taken from the queue, unless it is no longer open. */
+    private boolean lease(long hintId) {
+        FocHintRequest h = hintRequests.get(hintId);
+        if (h == null || !h.isOpen()) return false;
+        long until = System.currentTimeMillis() + FOCConfig.FOC_HINT_LEASE_MS;
+        hintLeases.put(hintId, until);
+        hintLeaseExpiry.schedule(hintId, until);
+        // Fulfilled or expired while the lease was being recorded: do not leave it behind.
+        if (!h.isOpen()) hintLeases.remove(hintId);
+        return true;
+    }
+
+    /** Puts a taken hint back in the queue if it is still open, ending its lease. */
+    public void returnOpenHint(long hintId, String fulfiller) {
+        requireFulfiller(fulfiller);
+        FocHintRequest h = hintRequests.get(hintId);
+        if (h == null) throw new FocInvalidHintIdException();
+        hintLeases.remove(hintId);
+        if (h.isOpen()) openHints.offer(hintId, hintPriority.of(hintId, h));
+    }
+
+    /**
+     * Re-queues every taken hint whose lease ran out by nowMillis and is still open; returns how
+     * many. Run by each takeOpenHint and by FocHintExpirer's tick.
+     */
+    public int reclaimHintLeases(long nowMillis) {
+        int reclaimed = 0;
+        for (long id : hintLeaseExpiry.advance(nowMillis)) {
+            Long until = hintLeases.get(id);
+            // Null once fulfilled, expired or returned; later if the hint was taken again since.
+            if (until == null || until > nowMillis || !hintLeases.remove(id, until)) continue;
+            FocHintRequest h = hintRequests.get(id);
+            if (h != null && h.isOpen()) {
+                openHints.offer(id, hintPriority.of(id, h));
+                reclaimed++;
+            }
+        }
+        return reclaimed;
+    }
+
+    /** Re-orders the open-hint queue; every queued hint is re-keyed, so the cost is O(open hints * log n). */
+    public void setHintPriority(FocHintPriority priority, String curator) {
+        writeGate.enter();
+        try {
+            requireCurator(curator);
+            Objects.requireNonNull(priority);
+            synchronized (settingsLock) {
+                FocHintPriorityChangedEvent event = new FocHintPriorityChangedEvent(priority);
+                journal(event);
+                applyHintPriority(priority);
+                eventLog.publish(event);
+            }
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    public FocHintPriority getHintPriority() { return hintPriority; }
+
+    private void applyHintPriority(FocHintPriority priority) {
+        hintPriority = priority;
+        for (Long id : openHints.ids()) {
+            FocHintRequest h = hintRequests.get(id);
+            if (h != null && h.isOpen()) openHints.offer(id, priority.of(id, h));
+            else openHints.remove(id);
+        }
+    }
+
+    public int getOpenHintQueueSize() {
+        return openHints.size();
+    }
+
+    public void registerLanguage(String languageIdHash, String curator) {
+        writeGate.enter();
+        try {
+            requireCurator(curator);
+            FocHash256 hash = FocHash256.fromHex(languageIdHash);
+            synchronized (settingsLock) {
+                if (languages.byHash(hash) != null) throw new FocLanguageAlreadyRegisteredException();
+                FocLanguageRegisteredEvent event = new FocLanguageRegisteredEvent(hash);
+                journal(event);
+                languages.register(hash);
+                eventLog.publish(event);
+            }
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    public void upvoteSnippet(long snippetId, String voter) {
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            FocSnippetRecord s = snippets.get(snippetId);
+            if (s == null) throw new FocInvalidSnippetIdException();
+            if (s.isDeleted()) throw new FocSnippetDeletedException();
+            if (s.getAuthor().equals(voter)) throw new FocCannotVoteOwnException();
+
+            if (!upvotesByVoter.computeIfAbsent(voter, k -> new FocIdBitmap()).add(snippetId)) throw new FocAlreadyUpvotedException();
+            FocIdBitmap down = downvotesByVoter.get(voter);
+            boolean undoDown = down != null && down.remove(snippetId);
+            long before;
+            long after;
+            do {
+                before = s.getReputationScore();
+                after = (undoDown ? Math.max(0, before + FOCConfig.FOC_REPUTATION_DOWN_DELTA) : before) + FOCConfig.FOC_REPUTATION_UP_DELTA;
+            } while (!s.casReputationScore(before, after));
+            FocReputationUpvoteEvent event = new FocReputationUpvoteEvent(snippetId, voter, s.getAuthor(), after, after - before);
+            try {
+                journal(event);
+            } catch (RuntimeException e) {
+                undoVote(s, voter, after - before, upvotesByVoter, undoDown ? down : null, snippetId);
+                throw e;
+            }
+            addAuthorReputation(s.getAuthor(), after - before);
+            rankSnippet(snippetId);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    public void downvoteSnippet(long snippetId, String voter) {
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            FocSnippetRecord s = snippets.get(snippetId);
+            if (s == null) throw new FocInvalidSnippetIdException();
+            if (s.isDeleted()) throw new FocSnippetDeletedException();
+            if (s.getAuthor().equals(voter)) throw new FocCannotVoteOwnException();
+
+            if (!downvotesByVoter.computeIfAbsent(voter, k -> new FocIdBitmap()).add(snippetId)) throw new FocAlreadyDownvotedException();
+            FocIdBitmap up = upvotesByVoter.get(voter);
+            boolean undoUp = up != null && up.remove(snippetId);
+            long before;
+            long after;
+            do {
+                before = s.getReputationScore();
+                after = Math.max(0, (undoUp ? Math.max(0, before - FOCConfig.FOC_REPUTATION_UP_DELTA) : before) - FOCConfig.FOC_REPUTATION_DOWN_DELTA);
+            } while (!s.casReputationScore(before, after));
+            FocReputationDownvoteEvent event = new FocReputationDownvoteEvent(snippetId, voter, s.getAuthor(), after, after - before);
+            try {
+                journal(event);
+            } catch (RuntimeException e) {
+                undoVote(s, voter, after - before, downvotesByVoter, undoUp ? up : null, snippetId);
+                throw e;
+            }
+            addAuthorReputation(s.getAuthor(), after - before);
+            rankSnippet(snippetId);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    /**
+     * Backs out a vote's bitmap bit, the opposite vote it replaced and its score change. The score
+     * is taken back with the same clamp at zero as a vote; if the clamp keeps some of it (a
+     * downvote landed in between), the author is credited that part, so the author's total still
+     * matches the snippet scores.
+     */
+    private void undoVote(FocSnippetRecord s, String voter, long scoreDelta, Map<String, FocIdBitmap> votes, FocIdBitmap replaced, long snippetId) {
+        long before;
+        long after;
+        do {
+            before = s.getReputationScore();
+            after = Math.max(0, before - scoreDelta);
+        } while (!s.casReputationScore(before, after));
+        addAuthorReputation(s.getAuthor(), after - (before - scoreDelta));
+        rankSnippet(snippetId);
+        votes.get(voter).remove(snippetId);
+        if (replaced != null) replaced.add(snippetId);
+    }
+
+    private void addAuthorReputation(String author, long delta) {
+        if (delta == 0) return;
+        authorReputation.computeIfAbsent(author, k -> new AtomicLong()).addAndGet(delta);
+        authorsByReputation.refresh(author, this::getAuthorReputation);
+    }
+
+    /** Ranks a live snippet with a non-zero score; a zero score drops it, as an unvoted snippet is never ranked. */
+    private void rankSnippet(long snippetId) {
+        snippetsByReputation.refresh(snippetId, id -> {
+            FocSnippetRecord r = snippets.get(id);
+            return r == null || r.isDeleted() || r.getReputationScore() == 0 ? null : r.getReputationScore();
+        });
+    }
+
+    /** Marks the author for re-ranking; the balance is read once per reader, not once per tip. */
+    private void rankTipBalance(String author) {
+        tipRankPending.add(author);
+    }
+
+    private void refreshTipRanks() {
+        for (Iterator<String> it = tipRankPending.iterator(); it.hasNext(); ) {
+            String author = it.next();
+            // Removed first, so a tip landing during the refresh marks the author again.
+            it.remove();
+            authorsByTipBalance.refresh(author, a -> {
+                BigInteger balance = tipLedger.balanceOf(a);
+                return balance.signum() == 0 ? null : balance;
+            });
+        }
+    }
+
+    private void rebuildLeaderboards() {
+        authorReputation.keySet().forEach(a -> authorsByReputation.refresh(a, this::getAuthorReputation));
+        tipLedger.authors().forEach(this::rankTipBalance);
+        snippets.forEach((id, r) -> {
+            if (!r.isDeleted() && r.getReputationScore() != 0) rankSnippet(id);
+        });
+    }
+
+    public List<FocLeaderboardEntry<String, Long>> getTopAuthorsByReputation(int k) {
+        return authorsByReputation.top(k);
+    }
+
+    public List<FocLeaderboardEntry<String, BigInteger>> getTopAuthorsByTipBalance(int k) {
+        refreshTipRanks();
+        return authorsByTipBalance.top(k);
+    }
+
+    public List<FocLeaderboardEntry<Long, Long>> getTopSnippetsByReputation(int k) {
+        return snippetsByReputation.top(k);
+    }
+
+    /**
+     * Recomputes every author's reputation from their live snippets in parallel and reports
+     * authors whose incrementally maintained value drifted. With repair, drifted values are reset.
+     */
+    public List<FocReputationDrift> verifyAuthorReputation(boolean repair, String curator) {
+        requireCurator(curator);
+        Set<String> authors = new HashSet<>(snippetIdsByAuthor.authors());
+        authors.addAll(authorReputation.keySet());
+        List<FocReputationDrift> drift = authors.parallelStream()
+                .map(author -> {
+                    long expected = recomputeAuthorReputation(author);
+                    long actual = getAuthorReputation(author);
+                    return expected == actual ? null : new FocReputationDrift(author, expected, actual);
+                })
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(FocReputationDrift::getAuthor))
+                .collect(Collectors.toList());
+        if (repair) {
+            for (FocReputationDrift d : drift) addAuthorReputation(d.getAuthor(), d.getExpected() - d.getActual());
         }
-        s.setReputationScore(Math.max(0, s.getReputationScore() - FOCConfig.FOC_REPUTATION_DOWN_DELTA));
-        authorReputation.put(s.getAuthor(), recomputeAuthorReputation(s.getAuthor()));
-        eventLog.add(new FocReputationDownvoteEvent(snippetId, voter, s.getAuthor(), s.getReputationScore()));
+        return drift;
     }
 
     private long recomputeAuthorReputation(String author) {
-        List<Long> ids = snippetIdsByAuthor.getOrDefault(author, Collections.emptyList());
         long total = 0;
-        for (Long id : ids) {
+        for (long id : snippetIdsByAuthor.ids(author)) {
+            if (!snippets.isLive(id)) continue;
             FocSnippetRecord r = snippets.get(id);
-            if (r != null && !r.isDeleted()) total += r.getReputationScore();
+            if (r != null) total += r.getReputationScore();
         }
         return total;
     }
 
     public void setPaused(boolean paused, String caller) {
-        requireCurator(caller);
-        this.paused = paused;
-        eventLog.add(new FocPauseToggledEvent(paused));
+        writeGate.enter();
+        try {
+            requireCurator(caller);
+            synchronized (settingsLock) {
+                FocPauseToggledEvent event = new FocPauseToggledEvent(paused);
+                journal(event);
+                this.paused = paused;
+                eventLog.publish(event);
+            }
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    public void setDedupeOnSubmit(boolean enabled, String caller) {
+        writeGate.enter();
+        try {
+            requireCurator(caller);
+            synchronized (settingsLock) {
+                FocDedupeModeToggledEvent event = new FocDedupeModeToggledEvent(enabled);
+                journal(event);
+                this.dedupeOnSubmit = enabled;
+                eventLog.publish(event);
+            }
+        } finally {
+            writeGate.exit();
+        }
     }
 
     public boolean isPaused() { return paused; }
+    public FocSnippetStorage getSnippetStorage() { return snippetStorage; }
+    public boolean isDedupeOnSubmit() { return dedupeOnSubmit; }
     public String getCuratorAddr() { return curatorAddr; }
     public String getTreasuryAddr() { return treasuryAddr; }
     public String getFulfillerAddr() { return fulfillerAddr; }
     public long getSnippetCount() { return snippetCount.get(); }
     public long getHintRequestCount() { return hintRequestCount.get(); }
-    public BigInteger getTotalTipsReceived() { return totalTipsReceived; }
-    public BigInteger getTotalTipsWithdrawn() { return totalTipsWithdrawn; }
-    public BigInteger getTotalTreasuryFees() { return totalTreasuryFees; }
+    public BigInteger getTotalTipsReceived() { return tipLedger.totalReceived(); }
+    public BigInteger getTotalTipsWithdrawn() { return tipLedger.totalWithdrawn(); }
+    public BigInteger getTotalTreasuryFees() { return tipLedger.totalFees(); }
+    public BigInteger getTotalTipsOutstanding() { return tipLedger.totalOutstanding(); }
+
+    /** received == withdrawn + outstanding + fees; deep also re-sums every author balance. */
+    public boolean checkTipConservation(boolean deep) {
+        return deep ? tipLedger.isConservedDeep() : tipLedger.isConserved();
+    }
 
     public FocSnippetRecord getSnippet(long snippetId) {
         return snippets.get(snippetId);
     }
 
     public FocHintRequest getHintRequest(long hintId) {
-        return hintRequests.get(hintId);
+        FocHintRequest h = hintRequests.get(hintId);
+        return h != null ? h : expiredHints.get(hintId);
     }
 
     public BigInteger getAuthorTipBalance(String author) {
-        return authorTipBalance.getOrDefault(author, BigInteger.ZERO);
+        return tipLedger.balanceOf(author);
     }
 
     public long getAuthorReputation(String author) {
-        return authorReputation.getOrDefault(author, 0L);
+        AtomicLong r = authorReputation.get(author);
+        return r == null ? 0L : r.get();
     }
 
     public List<Long> getSnippetIdsByAuthor(String author) {
-        return snippetIdsByAuthor.getOrDefault(author, Collections.emptyList()).stream()
-                .filter(id -> {
-                    FocSnippetRecord r = snippets.get(id);
-                    return r != null && !r.isDeleted();
-                })
-                .collect(Collectors.toList());
+        List<Long> out = new ArrayList<>();
+        for (long id : snippetIdsByAuthor.ids(author)) {
+            if (snippets.isLive(id)) out.add(id);
+        }
+        return out;
+    }
+
+    public boolean hasUpvoted(String voter, long snippetId) {
+        FocIdBitmap b = upvotesByVoter.get(voter);
+        return b != null && b.contains(snippetId);
+    }
+
+    public boolean hasDownvoted(String voter, long snippetId) {
+        FocIdBitmap b = downvotesByVoter.get(voter);
+        return b != null && b.contains(snippetId);
+    }
+
+    public int getActiveSnippetCountForAuthor(String author) {
+        return countOf(activeSnippetsByAuthor, author);
+    }
+
+    public int getOpenHintCountForUser(String user) {
+        return countOf(openHintsByUser, user);
     }
 
     public List<Long> getRecentSnippetIds() {
-        return new ArrayList<>(recentSnippetIds);
+        long[] ids = recentSnippetIds.snapshot();
+        List<Long> out = new ArrayList<>(ids.length);
+        for (long id : ids) out.add(id);
+        return out;
+    }
+
+    public long[] getRecentSnippetIdArray() {
+        return recentSnippetIds.snapshot();
     }
 
     public List<Long> getHintRequestIdsByUser(String user) {
@@ -670,25 +6043,490 @@ public final class FrenOfClaw {
     }
 
     public boolean isLanguageRegistered(String languageIdHash) {
-        return languageIdRegistered.contains(languageIdHash);
+        return languages.byHash(FocHash256.parseHexOrNull(languageIdHash)) != null;
+    }
+
+    public int getLanguageOrdinal(String languageIdHash) {
+        FocLanguage lang = languages.byHash(FocHash256.parseHexOrNull(languageIdHash));
+        return lang == null ? -1 : lang.getOrdinal();
     }
 
     public long getSnippetCountByLanguage(String languageIdHash) {
-        AtomicLong c = snippetCountByLanguage.get(languageIdHash);
-        return c == null ? 0 : c.get();
+        FocLanguage lang = languages.byHash(FocHash256.parseHexOrNull(languageIdHash));
+        return lang == null ? 0 : lang.getSnippetCount();
     }
 
-    public List<Object> getEventLog() {
-        return new ArrayList<>(eventLog);
+    // ─── Journal ───
+
+    /**
+     * Assigns event its seq and writes it ahead to the journal, when one is attached. Every mutation
+     * journals before it changes state (anything it claimed first, such as a cap slot or a state
+     * flip, is rolled back if this throws) and publishes to the in-memory log only once applied.
+     */
+    private void journal(FocEvent event) {
+        FocJournal j = journal;
+        if (j == null) {
+            event.stampSeq(eventLog.reserve());
+            return;
+        }
+        try {
+            j.append(event, eventLog::reserve);
+        } catch (RuntimeException e) {
+            if (event.getSeq() >= 0) eventLog.abandon(event.getSeq());
+            throw e;
+        }
     }
 
-    public void awardBadge(String account, int badgeSlot, String curator) {
+    /**
+     * Replays the whole journal into this engine, then journals every later mutation.
+     * Must be called on a fresh engine before it serves traffic.
+     */
+    public void attachJournal(FocJournal j, String curator) {
         requireCurator(curator);
-        if (badgeSlot < 0 || badgeSlot >= FOCConfig.FOC_BADGE_SLOTS) return;
-        int bits = badgeBitsByAccount.getOrDefault(account, 0);
-        bits |= (1 << badgeSlot);
-        badgeBitsByAccount.put(account, bits);
-        eventLog.add(new FocBadgeEvent(account, badgeSlot, System.currentTimeMillis()));
+        synchronized (this) {
+            requireFreshForJournal();
+            replayAndAttach(j, 0L);
+        }
+    }
+
+    private void requireFreshForJournal() {
+        if (journal != null) throw new IllegalStateException("FOC: journal already attached");
+        if (eventLog.size() != 0 || snippetCount.get() != 0 || hintRequestCount.get() != 0) throw new IllegalStateException("FOC: engine not fresh");
+    }
+
+    /** Replays from fromPosition, publishing each event at its journaled seq, then attaches j. */
+    private void replayAndAttach(FocJournal j, long fromPosition) {
+        if (fromPosition < j.firstPosition()) {
+            throw new IllegalStateException("FOC: journal below position " + j.firstPosition() + " was retired; attach with its snapshot directory");
+        }
+        // Backed from the start, so replaying a long journal does not hold it all in memory.
+        eventLog.backWith(j);
+        j.replay(fromPosition, ev -> {
+            applyReplayed(ev);
+            eventLog.publish(ev);
+        });
+        // Seqs whose journal write failed were never recorded; close those holes for readers.
+        eventLog.sealGaps();
+        journal = j;
+    }
+
+    public FocJournal getJournal() { return journal; }
+
+    // ─── Snapshots ───
+
+    /**
+     * Snapshots this engine into dir at an exact journal cut: closes the write gate, forces the
+     * journal so it can never end below the snapshot's position, writes, and reopens the gate.
+     */
+    Path snapshotTo(Path dir) throws IOException {
+        FocJournal j = journal;
+        if (j == null) throw new IllegalStateException("FOC: no journal attached");
+        writeGate.close();
+        try {
+            j.sync();
+            return FocSnapshots.write(this, j.position(), dir);
+        } finally {
+            writeGate.open();
+        }
+    }
+
+    /**
+     * Loads the newest complete snapshot in snapshotDir, replays only the journal after it, then
+     * journals every later mutation. Must be called on a fresh engine before it serves traffic.
+     */
+    public void attachJournal(FocJournal j, Path snapshotDir, String curator) throws IOException {
+        requireCurator(curator);
+        synchronized (this) {
+            requireFreshForJournal();
+            replayAndAttach(j, loadLatestSnapshot(snapshotDir));
+        }
+    }
+
+    /** Loads the newest complete snapshot into this fresh engine; returns its journal position, or 0 if there is none. */
+    long loadLatestSnapshot(Path snapshotDir) throws IOException {
+        List<Path> found = FocSnapshots.list(snapshotDir);
+        if (found.isEmpty()) return 0L;
+        try (InputStream is = Files.newInputStream(found.get(0))) {
+            return readSnapshot(new FocSnapshotInput(is));
+        }
+    }
+
+    /** Writes every map and counter; the caller must keep the engine quiescent (snapshotTo closes the write gate). */
+    void writeSnapshot(FocSnapshotOutput out, long journalPosition) throws IOException {
+        out.writeInt(FocSnapshots.MAGIC);
+        out.writeInt(FocSnapshots.VERSION);
+        out.writeLong(journalPosition);
+        out.writeLong(eventLog.size());
+        out.writeBoolean(paused);
+        out.writeBoolean(dedupeOnSubmit);
+        out.writeLong(hintTtlMillis);
+        out.writeInt(hintPriority.ordinal());
+        long maxSnippetId = snippetCount.get();
+        long maxHintId = hintRequestCount.get();
+        out.writeLong(maxSnippetId);
+        out.writeLong(maxHintId);
+
+        int langCount = languages.size();
+        out.writeInt(langCount);
+        for (int i = 0; i < langCount; i++) out.writeHash(languages.byOrdinal(i).getHash());
+
+        // Ids are dense, so walking them in order is cheaper than sorting the map's keys.
+        for (long id = 1; id <= maxSnippetId; id++) {
+            FocSnippetRecord s = snippets.get(id);
+            if (s == null) continue;
+            out.writeLong(id);
+            out.writeString(s.getAuthor());
+            out.writeHash(s.getContentHash());
+            out.writeInt(s.getLanguageOrdinal());
+            out.writeLong(s.getCreatedAt());
+            out.writeLong(s.getUpdatedAt());
+            out.writeLong(s.getReputationScore());
+            out.writeWei(s.getTipBalance());
+            out.writeBoolean(s.isDeleted());
+        }
+        out.writeLong(0L);
+
+        for (long id = 1; id <= maxHintId; id++) {
+            FocHintRequest h = getHintRequest(id);
+            if (h == null) continue;
+            out.writeLong(id);
+            out.writeString(h.getRequester());
+            out.writeHash(h.getTopicHash());
+            out.writeLong(h.getSnippetId());
+            out.writeLong(h.getCreatedAt());
+            out.writeInt(h.getState());
+            out.writeLong(h.isExpired() ? h.getExpiredAt() : h.getFulfilledAt());
+            out.writeString(h.getFulfiller());
+            out.writeLong(h.getExpiresAt());
+        }
+        out.writeLong(0L);
+
+        writeVoteBitmaps(out, upvotesByVoter);
+        writeVoteBitmaps(out, downvotesByVoter);
+
+        for (Map.Entry<String, AtomicLong> e : authorReputation.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeLong(e.getValue().get());
+        }
+        out.writeString(null);
+
+        tipLedger.writeTo(out);
+
+        for (Map.Entry<Long, List<String>> e : snippetTags.entrySet()) {
+            List<String> tags = new ArrayList<>(e.getValue());
+            out.writeLong(e.getKey());
+            out.writeInt(tags.size());
+            for (String t : tags) out.writeString(t);
+        }
+        out.writeLong(0L);
+
+        for (Map.Entry<String, Integer> e : badgeBitsByAccount.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeInt(e.getValue());
+        }
+        out.writeString(null);
+        out.writeLong(FocSnapshots.END_MAGIC);
+    }
+
+    private static void writeVoteBitmaps(FocSnapshotOutput out, Map<String, FocIdBitmap> byVoter) throws IOException {
+        for (Map.Entry<String, FocIdBitmap> e : byVoter.entrySet()) {
+            long[] ids = e.getValue().toArray();
+            out.writeString(e.getKey());
+            out.writeInt(ids.length);
+            for (long id : ids) out.writeLong(id);
+        }
+        out.writeString(null);
+    }
+
+    /** Restores a snapshot into this fresh engine and rebuilds the derived indexes; returns its journal position. */
+    long readSnapshot(FocSnapshotInput in) throws IOException {
+        if (in.readInt() != FocSnapshots.MAGIC || in.readInt() != FocSnapshots.VERSION) throw new IOException("FOC: not a snapshot");
+        long journalPosition = in.readLong();
+        eventLog.startAt(in.readLong());
+        paused = in.readBoolean();
+        dedupeOnSubmit = in.readBoolean();
+        hintTtlMillis = in.readLong();
+        hintPriority = FocHintPriority.ofOrdinal(in.readInt());
+        long maxSnippetId = in.readLong();
+        snippetCount.set(maxSnippetId);
+        hintRequestCount.set(in.readLong());
+
+        int langCount = in.readInt();
+        for (int i = 0; i < langCount; i++) {
+            FocHash256 hash = in.readHash();
+            FocLanguage lang = languages.byOrdinal(i);
+            if (lang == null) lang = languages.register(hash);
+            if (lang == null || !lang.getHash().equals(hash)) throw new IOException("FOC: snapshot language " + i + " does not match registry");
+        }
+
+        for (long id; (id = in.readLong()) != 0L; ) {
+            String author = in.readString();
+            FocHash256 contentHash = in.readHash();
+            FocLanguage lang = languages.byOrdinal(in.readInt());
+            if (lang == null) throw new IOException("FOC: snapshot snippet " + id + " has unknown language");
+            FocSnippetRecord s = snippets.create(id, author, contentHash, lang, in.readLong());
+            s.setUpdatedAt(in.readLong());
+            s.setReputationScore(in.readLong());
+            BigInteger tips = in.readWei();
+            if (tips.signum() != 0) s.addTipBalance(tips);
+            if (in.readBoolean()) {
+                s.markDeleted();
+            } else {
+                indexContentHash(contentHash, id);
+                tryReserve(activeSnippetsByAuthor, author, Integer.MAX_VALUE);
+                lang.addSnippet(id);
+            }
+            snippetIdsByAuthor.add(author, id);
+        }
+        for (long id = Math.max(1L, maxSnippetId - FOCConfig.FOC_RECENT_QUEUE_SIZE + 1); id <= maxSnippetId; id++) {
+            if (snippets.get(id) != null) pushRecentSnippet(id);
+        }
+
+        Map<String, List<Long>> idsByRequester = new HashMap<>();
+        for (long id; (id = in.readLong()) != 0L; ) {
+            String requester = in.readString();
+            FocHintRequest h = new FocHintRequest(requester, in.readHash(), in.readLong(), in.readLong());
+            int state = in.readInt();
+            long fulfilledAt = in.readLong();
+            String fulfiller = in.readString();
+            h.setExpiresAt(in.readLong());
+            if (state == FocHintRequest.STATE_OPEN) {
+                tryReserve(openHintsByUser, requester, Integer.MAX_VALUE);
+            } else if (state == FocHintRequest.STATE_EXPIRED) {
+                h.transitionFromOpen(state);
+                expiredHints.put(id, h, fulfilledAt);
+            } else {
+                h.transitionFromOpen(state);
+                h.setFulfilledAt(fulfilledAt);
+                h.setFulfiller(fulfiller);
+            }
+            if (state != FocHintRequest.STATE_EXPIRED) hintRequests.put(id, h);
+            if (state == FocHintRequest.STATE_OPEN) {
+                openHints.offer(id, hintPriority.of(id, h));
+                // The deadline was fixed by the TTL when the hint was made, not the TTL now.
+                if (h.getExpiresAt() > 0) hintExpiry.schedule(id, h.getExpiresAt());
+            }
+            idsByRequester.computeIfAbsent(requester, k -> new ArrayList<>()).add(id);
+        }
+        idsByRequester.forEach((requester, ids) -> hintRequestIdsByUser.put(requester, new CopyOnWriteArrayList<>(ids)));
+
+        readVoteBitmaps(in, upvotesByVoter);
+        readVoteBitmaps(in, downvotesByVoter);
+
+        for (String author; (author = in.readString()) != null; ) {
+            authorReputation.put(author, new AtomicLong(in.readLong()));
+        }
+
+        tipLedger.readFrom(in);
+
+        for (long id; (id = in.readLong()) != 0L; ) {
+            int n = in.readInt();
+            List<String> tags = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) tags.add(in.readString());
+            snippetTags.put(id, new CopyOnWriteArrayList<>(tags));
+            FocSnippetRecord s = snippets.get(id);
+            if (s != null && !s.isDeleted()) {
+                for (String t : tags) snippetIdsByTag.computeIfAbsent(t, k -> new FocIdBitmap()).add(id);
+            }
+        }
+
+        for (String account; (account = in.readString()) != null; ) {
+            badgeBitsByAccount.put(account, in.readInt());
+        }
+        if (in.readLong() != FocSnapshots.END_MAGIC) throw new IOException("FOC: snapshot trailer missing");
+        rebuildLeaderboards();
+        return journalPosition;
+    }
+
+    private static void readVoteBitmaps(FocSnapshotInput in, Map<String, FocIdBitmap> byVoter) throws IOException {
+        for (String voter; (voter = in.readString()) != null; ) {
+            FocIdBitmap bitmap = new FocIdBitmap();
+            for (int n = in.readInt(); n > 0; n--) bitmap.add(in.readLong());
+            byVoter.put(voter, bitmap);
+        }
+    }
+
+    /**
+     * Applies one journaled event. Replay is tolerant: an event already reflected in this engine
+     * (by a snapshot or an earlier record) is skipped, and false is returned. The switch is an
+     * expression, so a new FocEventType without a case here does not compile.
+     */
+    boolean applyReplayed(FocEvent event) {
+        return switch (event.getType()) {
+            case SNIPPET_SUBMITTED -> {
+                FocSnippetSubmittedEvent ev = (FocSnippetSubmittedEvent) event;
+                FocLanguage lang = replayedLanguage(ev.languageId);
+                snippetCount.accumulateAndGet(ev.snippetId, Math::max);
+                tryReserve(activeSnippetsByAuthor, ev.author, Integer.MAX_VALUE);
+                publishSnippet(ev.snippetId, ev.author, ev.contentHash, lang, ev.createdAt);
+                indexContentHash(ev.contentHash, ev.snippetId);
+                yield true;
+            }
+            case SNIPPET_BATCH_SUBMITTED -> {
+                FocSnippetBatchSubmittedEvent ev = (FocSnippetBatchSubmittedEvent) event;
+                FocLanguage lang = replayedLanguage(ev.languageId);
+                int m = ev.contentHashes.length;
+                snippetCount.accumulateAndGet(ev.firstSnippetId + m - 1, Math::max);
+                tryReserve(activeSnippetsByAuthor, ev.author, m, Integer.MAX_VALUE);
+                publishSnippetBatch(ev, lang);
+                yield true;
+            }
+            case SNIPPET_UPDATED -> {
+                FocSnippetUpdatedEvent ev = (FocSnippetUpdatedEvent) event;
+                FocSnippetRecord s = snippets.get(ev.snippetId);
+                if (s == null || ev.updatedAt < s.getUpdatedAt()) yield false;
+                applySnippetUpdate(ev.snippetId, s, ev.newContentHash, ev.updatedAt);
+                yield true;
+            }
+            case SNIPPET_DELETED -> {
+                FocSnippetDeletedEvent ev = (FocSnippetDeletedEvent) event;
+                FocSnippetRecord s = snippets.get(ev.snippetId);
+                if (s == null || !s.markDeleted()) yield false;
+                applySnippetDeletion(ev.snippetId, s);
+                yield true;
+            }
+            case SNIPPET_TIPPED -> {
+                FocSnippetTippedEvent ev = (FocSnippetTippedEvent) event;
+                FocSnippetRecord s = snippets.get(ev.snippetId);
+                if (s == null) yield false;
+                applyTip(s, ev);
+                yield true;
+            }
+            case SNIPPET_BATCH_TIPPED -> {
+                applyTipBatch((FocSnippetBatchTippedEvent) event);
+                yield true;
+            }
+            case TIPS_WITHDRAWN -> {
+                FocTipsWithdrawnEvent ev = (FocTipsWithdrawnEvent) event;
+                tipLedger.debit(ev.author, ev.amountWei);
+                rankTipBalance(ev.author);
+                yield true;
+            }
+            case HINT_REQUESTED -> {
+                FocHintRequestedEvent ev = (FocHintRequestedEvent) event;
+                hintRequestCount.accumulateAndGet(ev.hintId, Math::max);
+                tryReserve(openHintsByUser, ev.requester, Integer.MAX_VALUE);
+                publishHint(ev.hintId, ev.requester, ev.topicHash, ev.snippetId, ev.createdAt);
+                yield true;
+            }
+            case HINT_FULFILLED -> {
+                FocHintFulfilledEvent ev = (FocHintFulfilledEvent) event;
+                FocHintRequest h = hintRequests.get(ev.hintId);
+                if (h == null || !h.transitionFromOpen(FocHintRequest.STATE_FULFILLED)) yield false;
+                applyHintFulfilment(ev.hintId, h, ev.fulfiller, ev.fulfilledAt);
+                yield true;
+            }
+            case HINT_EXPIRED -> {
+                FocHintExpiredEvent ev = (FocHintExpiredEvent) event;
+                FocHintRequest h = hintRequests.get(ev.hintId);
+                if (h == null || !h.transitionFromOpen(FocHintRequest.STATE_EXPIRED)) yield false;
+                applyHintExpiry(ev.hintId, h, ev.expiredAt);
+                yield true;
+            }
+            case REPUTATION_UPVOTE -> {
+                FocReputationUpvoteEvent ev = (FocReputationUpvoteEvent) event;
+                applyVote(ev.snippetId, ev.author, ev.scoreDelta);
+                upvotesByVoter.computeIfAbsent(ev.voter, k -> new FocIdBitmap()).add(ev.snippetId);
+                FocIdBitmap down = downvotesByVoter.get(ev.voter);
+                if (down != null) down.remove(ev.snippetId);
+                yield true;
+            }
+            case REPUTATION_DOWNVOTE -> {
+                FocReputationDownvoteEvent ev = (FocReputationDownvoteEvent) event;
+                applyVote(ev.snippetId, ev.author, ev.scoreDelta);
+                downvotesByVoter.computeIfAbsent(ev.voter, k -> new FocIdBitmap()).add(ev.snippetId);
+                FocIdBitmap up = upvotesByVoter.get(ev.voter);
+                if (up != null) up.remove(ev.snippetId);
+                yield true;
+            }
+            case PAUSE_TOGGLED -> {
+                paused = ((FocPauseToggledEvent) event).paused;
+                yield true;
+            }
+            case DEDUPE_TOGGLED -> {
+                dedupeOnSubmit = ((FocDedupeModeToggledEvent) event).enabled;
+                yield true;
+            }
+            case HINT_TTL_CHANGED -> {
+                hintTtlMillis = ((FocHintTtlChangedEvent) event).ttlMillis;
+                yield true;
+            }
+            case HINT_PRIORITY_CHANGED -> {
+                applyHintPriority(((FocHintPriorityChangedEvent) event).priority);
+                yield true;
+            }
+            case LANGUAGE_REGISTERED -> languages.register(((FocLanguageRegisteredEvent) event).languageId) != null;
+            case BADGE_AWARDED -> {
+                FocBadgeEvent ev = (FocBadgeEvent) event;
+                badgeBitsByAccount.merge(ev.account, 1 << ev.badgeSlot, (a, b) -> a | b);
+                yield true;
+            }
+            case SNIPPET_TAGGED -> {
+                FocSnippetTaggedEvent ev = (FocSnippetTaggedEvent) event;
+                yield applySnippetTag(ev.snippetId, ev.tagIdHex, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    /** The language a replayed submit names, registering it if the journal predates its registration. */
+    private FocLanguage replayedLanguage(FocHash256 languageId) {
+        FocLanguage lang = languages.byHash(languageId);
+        if (lang == null) {
+            languages.register(languageId);
+            lang = languages.byHash(languageId);
+        }
+        return lang;
+    }
+
+    private void applyVote(long snippetId, String author, long scoreDelta) {
+        FocSnippetRecord s = snippets.get(snippetId);
+        if (s == null) return;
+        s.addReputationScore(scoreDelta);
+        if (!s.isDeleted()) addAuthorReputation(author, scoreDelta);
+        rankSnippet(snippetId);
+    }
+
+    /** Copies the whole history; prefer subscribeEvents or getEvents for anything long-lived. */
+    public List<FocEvent> getEventLog() {
+        return eventLog.toList();
+    }
+
+    public Flow.Publisher<FocEvent> subscribeEvents(long fromSeq, FocSlowSubscriberPolicy policy) {
+        return subscribeEvents(fromSeq, policy, FOCConfig.FOC_SUBSCRIBER_MAX_LAG);
+    }
+
+    /** Publisher of every event from fromSeq on; subscribers more than maxLag behind are handled per policy. */
+    public Flow.Publisher<FocEvent> subscribeEvents(long fromSeq, FocSlowSubscriberPolicy policy, long maxLag) {
+        return new FocEventPublisher(eventLog, fromSeq, policy, maxLag);
+    }
+
+    /** As above, with deliveries run on executor instead of the default subscriber pool. */
+    public Flow.Publisher<FocEvent> subscribeEvents(long fromSeq, FocSlowSubscriberPolicy policy, long maxLag, Executor executor) {
+        return new FocEventPublisher(eventLog, fromSeq, policy, maxLag, executor);
+    }
+
+    public List<FocEvent> getEvents(long fromSeq, int maxEvents) {
+        List<FocEvent> out = new ArrayList<>(Math.max(0, Math.min(maxEvents, 4096)));
+        eventLog.read(fromSeq, maxEvents, out::add);
+        return out;
+    }
+
+    public long getEventCount() {
+        return eventLog.size();
+    }
+
+    public void awardBadge(String account, int badgeSlot, String curator) {
+        writeGate.enter();
+        try {
+            requireCurator(curator);
+            if (badgeSlot < 0 || badgeSlot >= FOCConfig.FOC_BADGE_SLOTS) return;
+            FocBadgeEvent event = new FocBadgeEvent(account, badgeSlot, System.currentTimeMillis());
+            journal(event);
+            badgeBitsByAccount.merge(account, 1 << badgeSlot, (a, b) -> a | b);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
     }
 
     public int getBadgeBits(String account) {
@@ -702,16 +6540,41 @@ public final class FrenOfClaw {
     }
 
     public void addSnippetTag(long snippetId, String tagIdHex, String author) {
-        FocSnippetRecord s = snippets.get(snippetId);
-        if (s == null) throw new FocInvalidSnippetIdException();
-        if (s.isDeleted()) throw new FocSnippetDeletedException();
-        if (!s.getAuthor().equals(author)) throw new FocNotAuthorException();
+        writeGate.enter();
+        try {
+            FocSnippetRecord s = snippets.get(snippetId);
+            if (s == null) throw new FocInvalidSnippetIdException();
+            if (s.isDeleted()) throw new FocSnippetDeletedException();
+            if (!s.getAuthor().equals(author)) throw new FocNotAuthorException();
+            if (!claimSnippetTag(snippetId, tagIdHex, FOC_MAX_TAGS_PER_SNIPPET)) return;
+            FocSnippetTaggedEvent event = new FocSnippetTaggedEvent(snippetId, tagIdHex);
+            try {
+                journal(event);
+            } catch (RuntimeException e) {
+                snippetTags.get(snippetId).remove(tagIdHex);
+                throw e;
+            }
+            snippetIdsByTag.computeIfAbsent(tagIdHex, k -> new FocIdBitmap()).add(snippetId);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    /** Adds the tag and its posting unless it is already there or the snippet is at maxTags. */
+    private boolean applySnippetTag(long snippetId, String tagIdHex, int maxTags) {
+        if (!claimSnippetTag(snippetId, tagIdHex, maxTags)) return false;
+        snippetIdsByTag.computeIfAbsent(tagIdHex, k -> new FocIdBitmap()).add(snippetId);
+        return true;
+    }
+
+    private boolean claimSnippetTag(long snippetId, String tagIdHex, int maxTags) {
         List<String> tags = snippetTags.computeIfAbsent(snippetId, k -> new CopyOnWriteArrayList<>());
-        if (tags.size() >= FOC_MAX_TAGS_PER_SNIPPET) return;
-        if (!tags.contains(tagIdHex)) {
+        synchronized (tags) {
+            if (tags.size() >= maxTags || tags.contains(tagIdHex)) return false;
             tags.add(tagIdHex);
-            eventLog.add(new FocSnippetTaggedEvent(snippetId, tagIdHex));
         }
+        return true;
     }
 
     public List<String> getSnippetTags(long snippetId) {
@@ -719,25 +6582,301 @@ public final class FrenOfClaw {
         return t == null ? Collections.emptyList() : new ArrayList<>(t);
     }
 
-    public List<Long> submitSnippetBatch(String author, List<byte[]> contents, String languageId, List<byte[]> titles) {
-        if (contents.size() != titles.size() || contents.size() > 12) return Collections.emptyList();
-        List<Long> ids = new ArrayList<>();
-        for (int i = 0; i < contents.size(); i++) {
+    public List<Long> getSnippetIdsByTag(String tagIdHex) {
+        FocIdBitmap postings = snippetIdsByTag.get(tagIdHex);
+        return postings == null ? new ArrayList<>() : idList(postings);
+    }
+
+    /**
+     * Live snippets carrying every tag in allOf, at least one in anyOf (if non-empty) and none in
+     * noneOf. With allOf and anyOf both empty the query starts from every live snippet. Postings
+     * are combined as bitmaps, smallest first, so hot tags cost one bit per posting and the
+     * intersection never touches records. Cursors are stable for SNIPPET_ID; for REPUTATION a
+     * score that changes between pages can move a snippet across the page boundary.
+     */
+    public FocTagPage queryByTags(Collection<String> allOf, Collection<String> anyOf, Collection<String> noneOf,
+                                  FocTagOrder order, String cursor, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, FOCConfig.FOC_MAX_TAG_PAGE));
+        FocIdBitmap matches = evaluateTagQuery(allOf, anyOf, noneOf);
+        return order == FocTagOrder.REPUTATION ? reputationPage(matches, cursor, pageSize) : idPage(matches, cursor, pageSize);
+    }
+
+    private FocIdBitmap evaluateTagQuery(Collection<String> allOf, Collection<String> anyOf, Collection<String> noneOf) {
+        FocIdBitmap result = null;
+        if (!allOf.isEmpty()) {
+            List<FocIdBitmap> lists = new ArrayList<>(allOf.size());
+            for (String t : allOf) {
+                FocIdBitmap postings = snippetIdsByTag.get(t);
+                if (postings == null) return new FocIdBitmap();
+                lists.add(postings);
+            }
+            lists.sort(Comparator.comparingLong(FocIdBitmap::cardinality));
+            result = lists.get(0);
+            for (int i = 1; i < lists.size() && !result.isEmpty(); i++) result = FocIdBitmap.and(result, lists.get(i));
+        }
+        if (!anyOf.isEmpty()) {
+            FocIdBitmap union = new FocIdBitmap();
+            for (String t : anyOf) {
+                FocIdBitmap postings = snippetIdsByTag.get(t);
+                if (postings != null) union = FocIdBitmap.or(union, postings);
+            }
+            result = result == null ? union : FocIdBitmap.and(result, union);
+        }
+        if (result == null) {
+            result = new FocIdBitmap();
+            for (int i = 0; i < languages.size(); i++) result = FocIdBitmap.or(result, languages.byOrdinal(i).liveSnippets());
+        }
+        for (String t : noneOf) {
+            FocIdBitmap postings = snippetIdsByTag.get(t);
+            if (postings != null) result = FocIdBitmap.andNot(result, postings);
+        }
+        return result;
+    }
+
+    private FocTagPage idPage(FocIdBitmap matches, String cursor, int pageSize) {
+        long from = cursor == null ? 0L : parseCursor(cursor, 'i')[0] + 1;
+        List<Long> out = new ArrayList<>(pageSize);
+        long id = matches.nextSetBit(from);
+        for (; id >= 0 && out.size() < pageSize; id = matches.nextSetBit(id + 1)) {
+            FocSnippetRecord s = snippets.get(id);
+            if (s != null && !s.isDeleted()) out.add(id);
+        }
+        String next = id >= 0 && !out.isEmpty() ? "i:" + out.get(out.size() - 1) : null;
+        return new FocTagPage(out, next);
+    }
+
+    /**
+     * Snippets with a positive score come first, in snippetsByReputation's order: when matches are
+     * dense enough that a walk of that index filtered by matches fills a page quickly it is walked,
+     * otherwise every match is scored into a bounded heap. Scores never go below zero and zero is
+     * never ranked, so zero-score matches follow in id order, paged as in idPage.
+     */
+    private FocTagPage reputationPage(FocIdBitmap matches, String cursor, int pageSize) {
+        long[] after = cursor == null ? null : parseCursor(cursor, 'r');
+        List<Long> out = new ArrayList<>(pageSize);
+        long fromId = 0;
+        if (after == null || after[0] > 0) {
+            long afterScore = after == null ? Long.MAX_VALUE : after[0];
+            long afterId = after == null ? -1 : after[1];
+            long ranked = snippetsByReputation.size();
+            long n = matches.cardinality();
+            // A walk visits about pageSize * ranked / n entries to fill a page; a scan visits all n.
+            long[] last = (double) n * n >= (double) pageSize * ranked
+                    ? walkRanked(matches, afterScore, afterId, pageSize, out)
+                    : scanRanked(matches, afterScore, afterId, pageSize, out);
+            if (last != null) return new FocTagPage(out, "r:" + last[0] + ":" + last[1]);
+            if (out.size() == pageSize) return new FocTagPage(out, "r:0:-1");
+        } else {
+            fromId = after[1] + 1;
+        }
+        long id = matches.nextSetBit(fromId);
+        for (; id >= 0 && out.size() < pageSize; id = matches.nextSetBit(id + 1)) {
+            if (snippets.reputationOf(id) == 0) out.add(id);
+        }
+        String next = id >= 0 && !out.isEmpty() ? "r:0:" + out.get(out.size() - 1) : null;
+        return new FocTagPage(out, next);
+    }
+
+    /** Fills out from the ranked index; returns the cursor position if the page filled, else null. */
+    private long[] walkRanked(FocIdBitmap matches, long afterScore, long afterId, int pageSize, List<Long> out) {
+        Set<Long> seen = new HashSet<>();
+        for (FocLeaderboardEntry<Long, Long> e : snippetsByReputation.after(afterId, afterScore)) {
+            long id = e.getKey();
+            if (!matches.contains(id) || !snippets.isLive(id) || !seen.add(id)) continue;
+            out.add(id);
+            if (out.size() == pageSize) return new long[] {e.getScore(), id};
+        }
+        return null;
+    }
+
+    /** As walkRanked, scoring every match instead: O(matches * log pageSize). */
+    private long[] scanRanked(FocIdBitmap matches, long afterScore, long afterId, int pageSize, List<Long> out) {
+        FocTopScores best = new FocTopScores(pageSize);
+        matches.forEach(id -> {
+            long score = snippets.reputationOf(id);
+            if (score <= 0 || score > afterScore || (score == afterScore && id <= afterId)) return;
+            best.offer(score, id);
+        });
+        long[] last = best.drainTo(out);
+        return best.offered() > pageSize ? last : null;
+    }
+
+    private static long[] parseCursor(String cursor, char kind) {
+        String[] parts = cursor.split(":");
+        int fields = kind == 'r' ? 2 : 1;
+        if (parts.length == fields + 1 && parts[0].equals(String.valueOf(kind))) {
             try {
-                long id = submitSnippet(author, contents.get(i), languageId, titles.get(i));
-                ids.add(id);
-            } catch (RuntimeException e) {
-                break;
+                long[] out = new long[fields];
+                for (int i = 0; i < fields; i++) out[i] = Long.parseLong(parts[i + 1]);
+                return out;
+            } catch (NumberFormatException ignored) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("FOC: invalid cursor " + cursor);
+    }
+
+    /**
+     * Submits every content as one unit: the batch is validated up front, takes its author-cap
+     * slots and a contiguous id range in one step each, and is journaled as a single
+     * FocSnippetBatchSubmittedEvent, so it either lands whole or throws with nothing applied.
+     * Landing is not one visible step: while the batch is applied, readers of records and indexes
+     * can see some of its snippets and not yet others. The batch event reaches the log only after
+     * every record is in place, so log subscribers and replay see it whole. With dedupe on, contents already live (or repeated within the batch) resolve to the
+     * existing id instead of a new one; that lookup is not atomic with concurrent single submits.
+     */
+    public List<Long> submitSnippetBatch(String author, List<byte[]> contents, String languageId, List<byte[]> titles) {
+        requireNotPaused();
+        int n = contents.size();
+        if (titles.size() != n) throw new IllegalArgumentException("FOC: contents and titles differ in length");
+        if (n > FOCConfig.FOC_MAX_SUBMIT_BATCH) throw new IllegalArgumentException("FOC: batch larger than " + FOCConfig.FOC_MAX_SUBMIT_BATCH);
+        for (int i = 0; i < n; i++) {
+            if (contents.get(i).length > FOCConfig.FOC_MAX_SNIPPET_BYTES) throw new FocSnippetTooLongException();
+            byte[] title = titles.get(i);
+            if (title != null && title.length > FOCConfig.FOC_MAX_TITLE_BYTES) throw new FocTitleTooLongException();
+        }
+        FocLanguage lang = languages.byName(languageId);
+        if (lang == null) throw new FocLanguageAlreadyRegisteredException();
+        if (n == 0) return Collections.emptyList();
+        // Without dedupe every item takes a slot; fail before hashing rather than after.
+        if (!dedupeOnSubmit && n > FOCConfig.FOC_MAX_SNIPPETS_PER_AUTHOR - getActiveSnippetCountForAuthor(author)) throw new FocAuthorSnippetCapException();
+
+        FocHash256[] hashes = new FocHash256[n];
+        IntStream range = IntStream.range(0, n);
+        (n >= FOCConfig.FOC_PARALLEL_HASH_THRESHOLD ? range.parallel() : range)
+                .forEach(i -> hashes[i] = FocHashUtil.contentHash(contents.get(i)));
+        return submitHashedBatch(author, lang, hashes);
+    }
+
+    FocLanguage languageNamed(String name) {
+        return languages.byName(name);
+    }
+
+    /** Bulk path behind submitSnippetBatch for contents already validated and hashed. */
+    List<Long> submitHashedBatch(String author, FocLanguage lang, FocHash256[] hashes) {
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            int n = hashes.length;
+            if (n > FOCConfig.FOC_MAX_SUBMIT_BATCH) throw new IllegalArgumentException("FOC: batch larger than " + FOCConfig.FOC_MAX_SUBMIT_BATCH);
+            long[] ids = new long[n];
+            FocHash256[] fresh = hashes;
+            if (dedupeOnSubmit) {
+                Map<FocHash256, Long> seen = new HashMap<>();
+                List<FocHash256> unique = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    Long prior = seen.get(hashes[i]);
+                    if (prior == null) {
+                        long existing = snippetIdsByContentHash.firstLive(hashes[i]);
+                        prior = existing != 0 ? existing : -(long) (unique.size() + 1);
+                        if (existing == 0) unique.add(hashes[i]);
+                        seen.put(hashes[i], prior);
+                    }
+                    ids[i] = prior;
+                }
+                fresh = unique.toArray(new FocHash256[0]);
+            } else {
+                for (int i = 0; i < n; i++) ids[i] = -(long) (i + 1);
+            }
+
+            int m = fresh.length;
+            if (m > 0) {
+                if (!tryReserve(activeSnippetsByAuthor, author, m, FOCConfig.FOC_MAX_SNIPPETS_PER_AUTHOR)) throw new FocAuthorSnippetCapException();
+                long first = snippetCount.getAndAdd(m) + 1;
+                long ts = System.currentTimeMillis();
+                FocSnippetBatchSubmittedEvent event = new FocSnippetBatchSubmittedEvent(first, author, lang.getHash(), ts, fresh);
+                try {
+                    journal(event);
+                } catch (RuntimeException e) {
+                    activeSnippetsByAuthor.get(author).addAndGet(-m);
+                    throw e;
+                }
+                publishSnippetBatch(event, lang);
+                eventLog.publish(event);
+                for (int i = 0; i < n; i++) {
+                    if (ids[i] < 0) ids[i] = first - ids[i] - 1;
+                }
             }
+            List<Long> out = new ArrayList<>(n);
+            for (long id : ids) out.add(id);
+            return out;
+        } finally {
+            writeGate.exit();
         }
-        return ids;
     }
 
+    private void publishSnippetBatch(FocSnippetBatchSubmittedEvent ev, FocLanguage lang) {
+        for (int i = 0; i < ev.contentHashes.length; i++) {
+            long id = ev.firstSnippetId + i;
+            publishSnippet(id, ev.author, ev.contentHashes[i], lang, ev.createdAt);
+            indexContentHash(ev.contentHashes[i], id);
+        }
+    }
+
+    /**
+     * Applies many tips as one unit. Every tip is validated first; then fees are computed in one
+     * pass, credits are summed per snippet and per author, each balance and global total is
+     * touched once, and the batch is journaled as a single FocSnippetBatchTippedEvent.
+     */
     public void tipSnippetBatch(List<Long> snippetIds, String tipper, List<BigInteger> amounts) {
-        if (snippetIds.size() != amounts.size() || snippetIds.size() > 16) return;
-        for (int i = 0; i < snippetIds.size(); i++) {
-            tipSnippet(snippetIds.get(i), tipper, amounts.get(i));
+        writeGate.enter();
+        try {
+            requireNotPaused();
+            int n = snippetIds.size();
+            if (amounts.size() != n) throw new IllegalArgumentException("FOC: snippet ids and amounts differ in length");
+            if (n > FOCConfig.FOC_MAX_TIP_BATCH) throw new IllegalArgumentException("FOC: batch larger than " + FOCConfig.FOC_MAX_TIP_BATCH);
+            BigInteger minTip = BigInteger.valueOf(FOCConfig.FOC_MIN_TIP_WEI);
+            long[] ids = new long[n];
+            BigInteger[] amountsWei = new BigInteger[n];
+            for (int i = 0; i < n; i++) {
+                amountsWei[i] = amounts.get(i);
+                if (amountsWei[i].compareTo(minTip) < 0) throw new FocTipTooSmallException();
+                ids[i] = snippetIds.get(i);
+                FocSnippetRecord s = snippets.get(ids[i]);
+                if (s == null) throw new FocInvalidSnippetIdException();
+                if (s.isDeleted()) throw new FocSnippetDeletedException();
+            }
+            if (n == 0) return;
+            FocSnippetBatchTippedEvent event = new FocSnippetBatchTippedEvent(tipper, ids, amountsWei);
+            journal(event);
+            applyTipBatch(event);
+            eventLog.publish(event);
+        } finally {
+            writeGate.exit();
+        }
+    }
+
+    private void applyTipBatch(FocSnippetBatchTippedEvent ev) {
+        Map<Long, FocWeiTally> bySnippet = new HashMap<>();
+        Map<String, FocWeiTally> byAuthor = new HashMap<>();
+        Map<Long, FocSnippetRecord> records = new HashMap<>();
+        FocWeiTally received = new FocWeiTally();
+        FocWeiTally fees = new FocWeiTally();
+        for (int i = 0; i < ev.snippetIds.length; i++) {
+            long id = ev.snippetIds[i];
+            FocSnippetRecord s = records.computeIfAbsent(id, snippets::get);
+            if (s == null) continue;
+            BigInteger amountWei = ev.amountsWei[i];
+            FocWeiTally toSnippet = bySnippet.computeIfAbsent(id, k -> new FocWeiTally());
+            FocWeiTally toAuthor = byAuthor.computeIfAbsent(s.getAuthor(), k -> new FocWeiTally());
+            if (amountWei.bitLength() < 64 && amountWei.longValue() <= FOC_FAST_TIP_MAX_WEI) {
+                long amount = amountWei.longValue();
+                long fee = treasuryFee(amount);
+                toSnippet.add(amount - fee);
+                toAuthor.add(amount - fee);
+                received.add(amount);
+                fees.add(fee);
+            } else {
+                BigInteger fee = treasuryFee(amountWei);
+                toSnippet.add(amountWei.subtract(fee));
+                toAuthor.add(amountWei.subtract(fee));
+                received.add(amountWei);
+                fees.add(fee);
+            }
         }
+        bySnippet.forEach((id, share) -> records.get(id).addTipBalance(share.sum()));
+        tipLedger.recordTips(byAuthor, received.sum(), fees.sum());
+        byAuthor.keySet().forEach(this::rankTipBalance);
     }
 
     public Map<Long, FocSnippetRecord> getSnippetBatch(List<Long> ids) {
@@ -752,7 +6891,7 @@ public final class FrenOfClaw {
     public List<FocHintRequest> getHintRequestBatch(List<Long> ids) {
         List<FocHintRequest> out = new ArrayList<>();
         for (Long id : ids) {
-            FocHintRequest h = hintRequests.get(id);
+            FocHintRequest h = getHintRequest(id);
             if (h != null) out.add(h);
         }
         return out;
@@ -762,41 +6901,72 @@ public final class FrenOfClaw {
         Map<String, Object> m = new LinkedHashMap<>();
         m.put("tipBalance", getAuthorTipBalance(author).toString());
         m.put("reputation", getAuthorReputation(author));
-        m.put("snippetCount", getSnippetIdsByAuthor(author).size());
+        m.put("snippetCount", getActiveSnippetCountForAuthor(author));
         m.put("badgeBits", getBadgeBits(author));
         return m;
     }
 
     public long getActiveSnippetCount() {
-        return snippets.values().stream().filter(r -> !r.isDeleted()).count();
+        long[] n = new long[1];
+        snippets.forEach((id, r) -> {
+            if (!r.isDeleted()) n[0]++;
+        });
+        return n[0];
     }
 
     public long getFulfilledHintCount() {
-        return hintRequests.values().stream().filter(FocHintRequest::isFulfilled).count();
+        long[] n = new long[1];
+        hintRequests.forEach((id, h) -> {
+            if (h.isFulfilled()) n[0]++;
+        });
+        return n[0];
     }
 
     public List<Long> getSnippetIdsByLanguage(String languageIdHash) {
-        List<Long> out = new ArrayList<>();
-        for (Map.Entry<Long, FocSnippetRecord> e : snippets.entrySet()) {
-            if (!e.getValue().isDeleted() && e.getValue().getLanguageId().equals(languageIdHash)) {
-                out.add(e.getKey());
-            }
+        FocIdBitmap ids = languageBitmap(languageIdHash);
+        return ids == null ? new ArrayList<>() : idList(ids);
+    }
+
+    /** Live snippets in any of the given languages, ascending. */
+    public List<Long> getSnippetIdsByLanguages(Collection<String> languageIdHashes) {
+        FocIdBitmap union = new FocIdBitmap();
+        for (String hex : languageIdHashes) {
+            FocIdBitmap ids = languageBitmap(hex);
+            if (ids != null) union = FocIdBitmap.or(union, ids);
         }
+        return idList(union);
+    }
+
+    /** The live index for a language, or null if unknown; combine it with FocIdBitmap.and/or/andNot rather than mutating it. */
+    FocIdBitmap languageBitmap(String languageIdHash) {
+        FocLanguage lang = languages.byHash(FocHash256.parseHexOrNull(languageIdHash));
+        return lang == null ? null : lang.liveSnippets();
+    }
+
+    private static List<Long> idList(FocIdBitmap ids) {
+        long[] arr = ids.toArray();
+        List<Long> out = new ArrayList<>(arr.length);
+        for (long id : arr) out.add(id);
         return out;
     }
 
     public Optional<FocSnippetRecord> findSnippetByContentHash(String contentHashHex) {
-        return snippets.entrySet().stream()
-                .filter(e -> !e.getValue().isDeleted() && e.getValue().getContentHashHex().equals(contentHashHex))
-                .map(Map.Entry::getValue)
-                .findFirst();
+        FocHash256 contentHash = FocHash256.parseHexOrNull(contentHashHex);
+        if (contentHash == null) return Optional.empty();
+        long id = snippetIdsByContentHash.firstLive(contentHash);
+        return id == 0 ? Optional.empty() : Optional.ofNullable(snippets.get(id));
+    }
+
+    public List<Long> getSnippetIdsByContentHash(String contentHashHex) {
+        FocHash256 contentHash = FocHash256.parseHexOrNull(contentHashHex);
+        return contentHash == null ? Collections.emptyList() : snippetIdsByContentHash.liveIds(contentHash);
     }
 
     public List<Long> getOpenHintIdsForUser(String user) {
         return hintRequestIdsByUser.getOrDefault(user, Collections.emptyList()).stream()
                 .filter(id -> {
                     FocHintRequest h = hintRequests.get(id);
-                    return h != null && !h.isFulfilled();
+                    return h != null && h.isOpen();
                 })
                 .collect(Collectors.toList());
     }
@@ -828,9 +6998,9 @@ public final class FrenOfClaw {
         Map<String, Object> m = new LinkedHashMap<>();
         m.put("snippetCount", snippetCount.get());
         m.put("hintRequestCount", hintRequestCount.get());
-        m.put("totalTipsReceived", totalTipsReceived.toString());
-        m.put("totalTipsWithdrawn", totalTipsWithdrawn.toString());
-        m.put("totalTreasuryFees", totalTreasuryFees.toString());
+        m.put("totalTipsReceived", tipLedger.totalReceived().toString());
+        m.put("totalTipsWithdrawn", tipLedger.totalWithdrawn().toString());
+        m.put("totalTreasuryFees", tipLedger.totalFees().toString());
         m.put("paused", paused);
         m.put("version", FOCConfig.FOC_VERSION);
         return m;
@@ -866,7 +7036,7 @@ public final class FrenOfClaw {
 
 // ─── Badge and tag support (cheaper: fewer slots) ─────────────────────────────
 
-final class FocBadgeEvent {
+final class FocBadgeEvent extends FocEvent {
     final String account;
     final int badgeSlot;
     final long atBlockMs;
@@ -878,7 +7048,7 @@ final class FocBadgeEvent {
     }
 }
 
-final class FocSnippetTaggedEvent {
+final class FocSnippetTaggedEvent extends FocEvent {
     final long snippetId;
     final String tagIdHex;
 